@@ -1,6 +1,7 @@
 function createDataTab(tab) {
   'use strict';
   var games;
+  var archivedGames;
   var teams;
   var rulesets;
   // Upload table
@@ -66,7 +67,7 @@ function createDataTab(tab) {
     .appendTo($('<thead>').appendTo(sbDownloadTable))
     .append(
       $('<th>')
-        .attr('colspan', '5')
+        .attr('colspan', '7')
         .append(
           $('<button>')
             .addClass('Show Left')
@@ -104,6 +105,18 @@ function createDataTab(tab) {
       .button()
       .attr('href', '/SaveJSON/' + this.url);
   });
+  var selectedFilesA = $('<td><a download/></td>')
+    .appendTo(downloadRow)
+    .children('a')
+    .text('Selected Game Files (zip)')
+    .button()
+    .attr('href', '/GameData/game-files.zip?game=X');
+  $('<td><a download/></td>')
+    .appendTo(downloadRow)
+    .children('a')
+    .text('All Game Files (zip)')
+    .button()
+    .attr('href', '/GameData/game-files.zip');
   var allDataA = downloadRow.find('>td:eq(4)>a');
   var updateAllUrl = function () {
     var d = new Date();
@@ -133,6 +146,11 @@ function createDataTab(tab) {
     name += _timeConversions.twoDigit(d.getMinutes());
     name += _timeConversions.twoDigit(d.getSeconds());
     selectedA.attr('href', '/SaveJSON/crg-dataset-' + name + '.json?path=' + paths);
+    var gameIds = 'X';
+    games.find('tr.Content.Selected').each(function () {
+      gameIds = gameIds + ',' + $(this).attr('id');
+    });
+    selectedFilesA.attr('href', '/GameData/game-files.zip?game=' + gameIds);
   };
 
   // Delete table
@@ -318,6 +336,18 @@ function createDataTab(tab) {
     .end()
     .appendTo(tab);
 
+  archivedGames = typeTemplate
+    .clone(true)
+    .attr('type', 'ArchivedGames')
+    .addClass('Hide')
+    .find('th.Type>button.New')
+    .remove()
+    .end()
+    .find('tr.Type>th.Type>span.Type')
+    .text('Archived Games')
+    .end()
+    .appendTo(tab);
+
   teams = typeTemplate
     .clone(true)
     .attr('type', 'Teams')
@@ -361,9 +391,43 @@ function createDataTab(tab) {
       .attr('href', '/nso/hnso?game=' + k.Game)
       .text('Edit')
       .button();
+    $('<button>')
+      .addClass('Archive Left')
+      .text('Archive')
+      .button()
+      .on('click', function () {
+        WS.Set('ScoreBoard.Game(' + k.Game + ').Archive', true);
+      })
+      .appendTo(row.children('td.Name'));
+    row.toggleClass('Official', isTrue(WS.state['ScoreBoard.Game(' + k.Game + ').OfficialScore']));
     _windowFunctions.appendAlphaSortedByAttr(games.children('tbody'), row, 'name');
   });
 
+  WS.Register('ScoreBoard.Game(*).OfficialScore', function (k, v) {
+    games.find('tr.Content[id="' + k.Game + '"]').toggleClass('Official', isTrue(v));
+  });
+
+  WS.Register(['ScoreBoard.ArchivedGame(*).Name', 'ScoreBoard.ArchivedGame(*).Restoring'], function (k, v) {
+    archivedGames.find('tr.Content[id="' + k.ArchivedGame + '"]').remove();
+    var name = WS.state['ScoreBoard.ArchivedGame(' + k.ArchivedGame + ').Name'];
+    if (name == null) {
+      return;
+    }
+    var row = itemTemplate.clone(true);
+    row.attr('name', name).attr('id', k.ArchivedGame);
+    row.find('td.Name>button.Select, td.Name>a.Edit').remove();
+    row.find('td.Name>span').text(name);
+    $('<button>')
+      .addClass('Restore Left')
+      .text('Restore')
+      .button({ disabled: isTrue(WS.state['ScoreBoard.ArchivedGame(' + k.ArchivedGame + ').Restoring']) })
+      .on('click', function () {
+        WS.Set('ScoreBoard.ArchivedGame(' + k.ArchivedGame + ').Restore', true);
+      })
+      .prependTo(row.children('td.Name'));
+    _windowFunctions.appendAlphaSortedByAttr(archivedGames.children('tbody'), row, 'name');
+  });
+
   WS.Register('ScoreBoard.PreparedTeam(*).FullName', function (k, v) {
     teams.find('tr.Content[id="' + k.PreparedTeam + '"]').remove();
     if (v == null) {
@@ -125,6 +125,10 @@ function createNonViewRows(table) {
   var statsbookFile = $('<label>Blank Statsbook File: </label>').add(
     WSControl('ScoreBoard.Settings.Setting(ScoreBoard.Stats.InputFile)', $('<input type="text" size="40">'))
   );
+  var liveStatsbook = WSActiveButton(
+    'ScoreBoard.Settings.Setting(ScoreBoard.Stats.LiveStatsbook)',
+    $('<button>').text('Keep Statsbook Updated').button()
+  );
   WS.Register('ScoreBoard.BlankStatsbookFound', function (k, v) {
     statsbookFile.parent().addClass('StatsFile').toggleClass('Readable', isTrue(v));
   });
@@ -189,7 +193,8 @@ function createNonViewRows(table) {
     .first()
     .append(useLTButton)
     .next()
-    .append(statsbookFile);
+    .append(statsbookFile)
+    .append(liveStatsbook);
   $('<tr><td/><td/><td/></tr>')
     .appendTo(optionsTable)
     .addClass('ScoreBoardOptions EndSubSection Footer')
@@ -5,9 +5,17 @@ var WS = {
   callbackTrie: {},
   batchCallbacks: [],
   Connected: false,
+  // Set once the server has sent the initial values for all registered paths.
+  Synced: false,
   state: {},
   heartbeat: null,
   debug: false,
+  // Set before connecting to receive state updates as binary frames, which
+  // are smaller and cheaper to parse. See BinaryStateEncoder.java.
+  binaryProtocol: false,
+  _binaryKeys: [],
+  _nextBatchId: 1,
+  _batchCallbacks: {},
 
   /* jshint -W117 */
   Connect: function (callback) {
@@ -37,6 +45,9 @@ var WS = {
       }
     }
     url += '&platform=' + encodeURIComponent(platform);
+    if (WS.binaryProtocol) {
+      url += '&protocol=binary';
+    }
 
     if (WS.Connected !== true || !WS.socket) {
       if (WS.debug) {
@@ -44,6 +55,7 @@ var WS = {
       }
 
       WS.socket = new WebSocket(url);
+      WS.socket.binaryType = 'arraybuffer';
       WS.socket.onopen = function (e) {
         WS.Connected = true;
         if (WS.debug) {
@@ -58,6 +70,8 @@ var WS = {
           WS.triggerCallback(k, null);
         });
         WS.state = {};
+        WS.Synced = false;
+        WS._binaryKeys = [];
         $.each(WS.callbacks, function (idx, c) {
           req.paths.push(c.path);
         });
@@ -74,7 +88,10 @@ var WS = {
         WS.heartbeat = setInterval(WS.Command, 30000, 'Ping');
       };
       WS.socket.onmessage = function (e) {
-        var json = JSON.parse(e.data);
+        var json = e.data instanceof ArrayBuffer ? WS._decodeBinary(e.data) : JSON.parse(e.data);
+        if (json == null) {
+          return;
+        }
         if (WS.debug) {
           console.log('WS', json);
         }
@@ -84,6 +101,23 @@ var WS = {
         if (json.state != null) {
           WS.processUpdate(json.state);
         }
+        if (json.trace != null) {
+          // Let the server know how long it took from the command to here.
+          WS.send(JSON.stringify({ action: 'TraceAck', trace: json.trace }));
+        }
+        if (json.syncComplete) {
+          WS.Synced = true;
+        }
+        if (json.ack != null) {
+          var ackCallback = WS._batchCallbacks[json.ack];
+          delete WS._batchCallbacks[json.ack];
+          if (json.error != null) {
+            console.log('WS', 'SetBatch failed', json.error, json.failed);
+          }
+          if (ackCallback != null) {
+            ackCallback(json.error, json.failed);
+          }
+        }
       };
       WS.socket.onclose = function (e) {
         WS.Connected = false;
@@ -93,6 +127,7 @@ var WS = {
           WS.connectTimeout = setTimeout(WS._connect, 1000);
         }
         clearInterval(WS.heartbeat);
+        WS._batchCallbacks = {};
       };
       WS.socket.onerror = function (e) {
         console.log('WS', 'Websocket: Error', e);
@@ -137,6 +172,97 @@ var WS = {
     WS.send(JSON.stringify(req));
   },
 
+  _utf8: typeof TextDecoder !== 'undefined' ? new TextDecoder('utf-8') : null,
+
+  _decodeBinary: function (buffer) {
+    'use strict';
+    var bytes = new Uint8Array(buffer);
+    var pos = 0;
+    var varint = function () {
+      var v = 0;
+      var mul = 1;
+      var b;
+      do {
+        b = bytes[pos++];
+        v += (b & 0x7f) * mul;
+        mul *= 128;
+      } while (b & 0x80);
+      return v;
+    };
+    var zigZag = function () {
+      var v = varint();
+      return v % 2 === 0 ? v / 2 : -(v + 1) / 2;
+    };
+    var string = function () {
+      var len = varint();
+      var s = WS._utf8.decode(bytes.subarray(pos, pos + len));
+      pos += len;
+      return s;
+    };
+    // 1 is a state update, 2 the same with a trace id at the end.
+    var frameType = bytes[pos++];
+    if (frameType !== 1 && frameType !== 2) {
+      console.log('WS', 'Unknown binary frame type', frameType);
+      return null;
+    }
+    var i;
+    var newKeys = varint();
+    var id = varint();
+    for (i = 0; i < newKeys; i++) {
+      WS._binaryKeys[id++] = string();
+    }
+    var count = varint();
+    var state = {};
+    for (i = 0; i < count; i++) {
+      var key = WS._binaryKeys[varint()];
+      var type = bytes[pos++];
+      switch (type) {
+        case 0:
+          state[key] = null;
+          break;
+        case 1:
+          state[key] = false;
+          break;
+        case 2:
+          state[key] = true;
+          break;
+        case 3:
+        case 4:
+          state[key] = zigZag();
+          break;
+        case 5:
+          state[key] = string();
+          break;
+        default:
+          console.log('WS', 'Unknown binary value type', type, key);
+          return null;
+      }
+    }
+    var json = { state: state };
+    if (frameType === 2) {
+      json.trace = varint();
+    }
+    return json;
+  },
+
+  // Apply several sets at once. sets is a list of {key, value, flag} objects,
+  // callback is called with the error (if any) and the keys that could not be
+  // applied (if any) once the batch has been processed.
+  SetBatch: function (sets, callback) {
+    'use strict';
+    var req = {
+      action: 'SetBatch',
+      id: WS._nextBatchId++,
+      sets: $.map(sets, function (s) {
+        return { key: s.key, value: s.value, flag: typeof s.flag !== 'undefined' ? s.flag : '' };
+      }),
+    };
+    if (callback != null) {
+      WS._batchCallbacks[req.id] = callback;
+    }
+    WS.send(JSON.stringify(req));
+  },
+
   triggerCallback: function (k, v) {
     'use strict';
     k = WS._enrichProp(k);
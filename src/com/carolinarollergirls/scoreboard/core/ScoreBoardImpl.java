@@ -7,7 +7,9 @@ import com.carolinarollergirls.scoreboard.core.admin.MediaImpl;
 import com.carolinarollergirls.scoreboard.core.admin.SettingsImpl;
 import com.carolinarollergirls.scoreboard.core.admin.TwitterImpl;
 import com.carolinarollergirls.scoreboard.core.current.CurrentGameImpl;
+import com.carolinarollergirls.scoreboard.core.game.ArchivedGameImpl;
 import com.carolinarollergirls.scoreboard.core.game.GameImpl;
+import com.carolinarollergirls.scoreboard.core.interfaces.ArchivedGame;
 import com.carolinarollergirls.scoreboard.core.interfaces.Clients;
 import com.carolinarollergirls.scoreboard.core.interfaces.CurrentGame;
 import com.carolinarollergirls.scoreboard.core.interfaces.Game;
@@ -68,6 +70,7 @@ public class ScoreBoardImpl extends ScoreBoardEventProviderImpl<ScoreBoard> impl
         synchronized (coreLock) {
             if (prop == PREPARED_TEAM) { return new PreparedTeamImpl(this, id); }
             if (prop == GAME) { return new GameImpl(this, id); }
+            if (prop == ARCHIVED_GAME) { return new ArchivedGameImpl(this, id); }
             if (prop == TWITTER) { return new TwitterImpl(this); }
             return null;
         }
@@ -110,6 +113,11 @@ public class ScoreBoardImpl extends ScoreBoardEventProviderImpl<ScoreBoard> impl
         return get(GAME, id);
     }
 
+    @Override
+    public ArchivedGame getArchivedGame(String id) {
+        return get(ARCHIVED_GAME, id);
+    }
+
     @Override
     public PreparedTeam getPreparedTeam(String id) {
         return get(PREPARED_TEAM, id);
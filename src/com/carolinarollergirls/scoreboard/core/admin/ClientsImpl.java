@@ -1,5 +1,7 @@
 package com.carolinarollergirls.scoreboard.core.admin;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
 
@@ -9,6 +11,7 @@ import com.carolinarollergirls.scoreboard.event.Child;
 import com.carolinarollergirls.scoreboard.event.ScoreBoardEventProvider;
 import com.carolinarollergirls.scoreboard.event.ScoreBoardEventProviderImpl;
 import com.carolinarollergirls.scoreboard.event.Value;
+import com.carolinarollergirls.scoreboard.event.ValueWithId;
 import com.carolinarollergirls.scoreboard.utils.HumanIdGenerator;
 import com.carolinarollergirls.scoreboard.utils.Logger;
 
@@ -54,7 +57,13 @@ public class ClientsImpl extends ScoreBoardEventProviderImpl<Clients> implements
 
     @Override
     public void removeClient(Client c) {
-        synchronized (coreLock) { c.delete(Source.UNLINK); }
+        synchronized (coreLock) {
+            requestBatchStart();
+            Device d = c.get(Client.DEVICE);
+            if (d instanceof DeviceImpl) { ((DeviceImpl) d).flushTimestamps(); }
+            c.delete(Source.UNLINK);
+            requestBatchEnd();
+        }
     }
 
     @Override
@@ -74,12 +83,7 @@ public class ClientsImpl extends ScoreBoardEventProviderImpl<Clients> implements
 
     @Override
     public Device getDevice(String sessionId) {
-        synchronized (coreLock) {
-            for (Device d : getAll(DEVICE)) {
-                if (d.get(Device.SESSION_ID_SECRET).equals(sessionId)) { return d; }
-            }
-            return null;
-        }
+        synchronized (coreLock) { return devicesBySessionId.get(sessionId); }
     }
 
     @Override
@@ -111,11 +115,44 @@ public class ClientsImpl extends ScoreBoardEventProviderImpl<Clients> implements
     }
 
     protected Device getDeviceByName(String name) {
-        synchronized (coreLock) {
-            for (Device d : getAll(DEVICE)) {
-                if (d.get(Device.NAME).equals(name)) { return d; }
+        synchronized (coreLock) { return devicesByName.get(name); }
+    }
+
+    @Override
+    protected void itemAdded(Child<?> prop, ValueWithId item, Source source) {
+        if (prop == DEVICE) {
+            Device d = (Device) item;
+            devicesBySessionId.put(d.get(Device.SESSION_ID_SECRET), d);
+            devicesByName.put(d.get(Device.NAME), d);
+        }
+    }
+
+    @Override
+    protected void itemRemoved(Child<?> prop, ValueWithId item, Source source) {
+        if (prop == DEVICE) {
+            Device d = (Device) item;
+            unindex(devicesBySessionId, Device.SESSION_ID_SECRET, d.get(Device.SESSION_ID_SECRET), d);
+            unindex(devicesByName, Device.NAME, d.get(Device.NAME), d);
+        }
+    }
+
+    // Keeps the indexes in line with the devices' values.
+    private void indexedValueChanged(Device d, Value<String> prop, String value, String last) {
+        if (get(DEVICE, d.getId()) != d) { return; } // not added yet, or already removed
+        Map<String, Device> index = prop == Device.NAME ? devicesByName : devicesBySessionId;
+        unindex(index, prop, last, d);
+        index.put(value, d);
+    }
+
+    private void unindex(Map<String, Device> index, Value<String> prop, String value, Device d) {
+        if (index.get(value) != d) { return; }
+        index.remove(value);
+        // Shouldn't happen, but don't lose track of another device with the same value.
+        for (Device other : getAll(DEVICE)) {
+            if (other != d && other.get(prop).equals(value)) {
+                index.put(value, other);
+                return;
             }
-            return null;
         }
     }
 
@@ -135,6 +172,36 @@ public class ClientsImpl extends ScoreBoardEventProviderImpl<Clients> implements
         }
     }
 
+    // Timestamps that change all the time, but are only of interest at a coarse
+    // granularity. Every change would be sent to all clients watching
+    // ScoreBoard.Clients and be autosaved, so the latest time is only kept in
+    // memory until the property is EPHEMERAL_INTERVAL_MS out of date or the
+    // client goes away.
+    private static class EphemeralTimestamp {
+        private EphemeralTimestamp(ScoreBoardEventProvider p, Value<Long> prop) {
+            this.p = p;
+            this.prop = prop;
+        }
+
+        private void update(long now) {
+            latest = Math.max(latest, now);
+            if (latest - p.get(prop) >= EPHEMERAL_INTERVAL_MS) { p.set(prop, latest); }
+        }
+
+        private void flush() {
+            if (latest > p.get(prop)) { p.set(prop, latest); }
+        }
+
+        private final ScoreBoardEventProvider p;
+        private final Value<Long> prop;
+        private long latest = 0;
+    }
+
+    public static final long EPHEMERAL_INTERVAL_MS = 5 * 60 * 1000;
+
+    private final Map<String, Device> devicesBySessionId = new HashMap<>();
+    private final Map<String, Device> devicesByName = new HashMap<>();
+
     public class ClientImpl extends ScoreBoardEventProviderImpl<Client> implements Client {
         ClientImpl(Clients parent, String id) {
             super(parent, id, Clients.CLIENT);
@@ -152,10 +219,17 @@ public class ClientsImpl extends ScoreBoardEventProviderImpl<Clients> implements
         public void write() {
             synchronized (coreLock) {
                 long now = System.currentTimeMillis();
-                set(WROTE, now);
-                get(DEVICE).set(Device.WROTE, now);
+                wrote.update(now);
+                Device d = get(DEVICE);
+                if (d instanceof DeviceImpl) {
+                    ((DeviceImpl) d).write(now);
+                } else {
+                    d.write();
+                }
             }
         }
+
+        private final EphemeralTimestamp wrote = new EphemeralTimestamp(this, WROTE);
     }
 
     public class DeviceImpl extends ScoreBoardEventProviderImpl<Device> implements Device {
@@ -189,15 +263,19 @@ public class ClientsImpl extends ScoreBoardEventProviderImpl<Clients> implements
 
         @Override
         public void access() {
-            synchronized (coreLock) { set(ACCESSED, System.currentTimeMillis()); }
+            synchronized (coreLock) { accessed.update(System.currentTimeMillis()); }
         }
 
         @Override
-        public void write() {
-            synchronized (coreLock) {
-                long now = System.currentTimeMillis();
-                set(WROTE, now);
-            }
+        public void write() { write(System.currentTimeMillis()); }
+
+        private void write(long now) {
+            synchronized (coreLock) { wrote.update(now); }
+        }
+
+        private void flushTimestamps() {
+            accessed.flush();
+            wrote.flush();
         }
 
         @Override
@@ -208,5 +286,16 @@ public class ClientsImpl extends ScoreBoardEventProviderImpl<Clients> implements
             }
             return value;
         }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        protected void valueChanged(Value<?> prop, Object value, Object last, Source source, Flag flag) {
+            if (prop == SESSION_ID_SECRET || prop == NAME) {
+                indexedValueChanged(this, (Value<String>) prop, (String) value, (String) last);
+            }
+        }
+
+        private final EphemeralTimestamp accessed = new EphemeralTimestamp(this, ACCESSED);
+        private final EphemeralTimestamp wrote = new EphemeralTimestamp(this, WROTE);
     }
 }
@@ -25,7 +25,13 @@ public class SettingsImpl extends ScoreBoardEventProviderImpl<Settings> implemen
         if (item != null && ScoreBoard.SETTING_STATSBOOK_INPUT.equals(item.getId())) {
             boolean found = Paths.get(item.getValue()).toFile().canRead();
             getScoreBoard().set(ScoreBoard.BLANK_STATSBOOK_FOUND, found);
-            if (found && scoreBoard.isInitialLoadDone()) { StatsbookExporter.preload(item.getValue()); }
+            if (scoreBoard.isInitialLoadDone()) { StatsbookExporter.preload(found ? item.getValue() : ""); }
+        } else if (item != null && ScoreBoard.SETTING_EXPORT_WORKERS.equals(item.getId())) {
+            try {
+                StatsbookExporter.setWorkerCount(Integer.parseInt(item.getValue()));
+            } catch (NumberFormatException e) {}
+        } else if (item != null && ScoreBoard.SETTING_LIVE_STATSBOOK.equals(item.getId())) {
+            if (!Boolean.parseBoolean(item.getValue())) { StatsbookExporter.discardAllLive(); }
         }
     }
 
@@ -41,6 +47,10 @@ public class SettingsImpl extends ScoreBoardEventProviderImpl<Settings> implemen
         set("ScoreBoard.Operator_Default.ReplaceButton", "false");
         set(ScoreBoard.SETTING_USE_LT, "false");
         set(ScoreBoard.SETTING_STATSBOOK_INPUT, "");
+        set(ScoreBoard.SETTING_EXPORT_WORKERS, "1");
+        set(ScoreBoard.SETTING_LIVE_STATSBOOK, "false");
+        set(ScoreBoard.SETTING_WS_COMPRESSION, "true");
+        set(ScoreBoard.SETTING_WS_COMPRESSION_MIN_SIZE, "256");
         set(ScoreBoard.SETTING_AUTO_START, "");
         set(ScoreBoard.SETTING_AUTO_START_BUFFER, "0:02");
         set(ScoreBoard.SETTING_AUTO_END_JAM, "true");
@@ -0,0 +1,88 @@
+package com.carolinarollergirls.scoreboard.core.game;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.jr.ob.JSON;
+
+import com.carolinarollergirls.scoreboard.core.interfaces.ArchivedGame;
+import com.carolinarollergirls.scoreboard.core.interfaces.ScoreBoard;
+import com.carolinarollergirls.scoreboard.event.Command;
+import com.carolinarollergirls.scoreboard.event.ScoreBoardEventProviderImpl;
+import com.carolinarollergirls.scoreboard.json.ScoreBoardJSONSetter;
+import com.carolinarollergirls.scoreboard.json.ScoreBoardJSONSetter.JSONSet;
+import com.carolinarollergirls.scoreboard.utils.BasePath;
+import com.carolinarollergirls.scoreboard.utils.Logger;
+
+public class ArchivedGameImpl extends ScoreBoardEventProviderImpl<ArchivedGame> implements ArchivedGame {
+    public ArchivedGameImpl(ScoreBoard sb, String id) {
+        super(sb, id, ScoreBoard.ARCHIVED_GAME);
+        addProperties(props);
+        addWriteProtectionOverride(RESTORING, Source.ANY_INTERNAL);
+    }
+
+    @Override
+    public void execute(Command prop, Source source) {
+        if (prop == RESTORE && !get(RESTORING)) {
+            set(RESTORING, true);
+            // reading the file can take a while, so don't block the caller
+            new Thread() {
+                @Override
+                public void run() {
+                    restore();
+                }
+            }.start();
+        }
+    }
+
+    @Override
+    public File getArchiveFile() {
+        return archiveFile(getId());
+    }
+
+    // Where the game with the given id is kept while archived. This is not the
+    // export in html/game-data/json, as that can be deleted or overwritten.
+    protected static File archiveFile(String gameId) {
+        return new File(new File(BasePath.get(), "config/archive"), gameId + ".json");
+    }
+
+    // Load the game from its file. Must not be called with the core lock held.
+    @Override
+    public void restore() {
+        scoreBoard.runInBatch(new Runnable() {
+            @Override
+            public void run() {
+                set(RESTORING, true);
+                scoreBoard.set(ScoreBoard.IMPORTS_IN_PROGRESS, 1, Flag.CHANGE);
+            }
+        });
+        boolean success = false;
+        try {
+            File file = getArchiveFile();
+            Map<String, Object> map = JSON.std.mapFrom(file);
+            @SuppressWarnings("unchecked")
+            Map<String, Object> state = (Map<String, Object>) map.get("state");
+            List<List<JSONSet>> staged = ScoreBoardJSONSetter.stage(state);
+            ScoreBoardJSONSetter.setStaged(scoreBoard, staged, Source.JSON);
+            success = scoreBoard.getGame(getId()) != null;
+            if (!success) { Logger.printMessage("Archived game " + getId() + " not found in " + file); }
+        } catch (Exception e) {
+            Logger.printMessage("Error restoring archived game " + get(NAME) + ": " + e.getMessage());
+        }
+        final boolean restored = success;
+        scoreBoard.runInBatch(new Runnable() {
+            @Override
+            public void run() {
+                scoreBoard.set(ScoreBoard.IMPORTS_IN_PROGRESS, -1, Flag.CHANGE);
+                if (scoreBoard.get(ScoreBoard.IMPORTS_IN_PROGRESS) == 0) { scoreBoard.cleanupAliases(); }
+                if (restored) {
+                    getArchiveFile().delete();
+                    delete();
+                } else {
+                    set(RESTORING, false);
+                }
+            }
+        });
+    }
+}
@@ -7,12 +7,14 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.FormatStyle;
 import java.time.temporal.ChronoUnit;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 
 import com.fasterxml.jackson.jr.ob.JSON;
 
+import com.carolinarollergirls.scoreboard.core.interfaces.ArchivedGame;
 import com.carolinarollergirls.scoreboard.core.interfaces.Clock;
 import com.carolinarollergirls.scoreboard.core.interfaces.Expulsion;
 import com.carolinarollergirls.scoreboard.core.interfaces.Game;
@@ -26,6 +28,7 @@ import com.carolinarollergirls.scoreboard.core.interfaces.PreparedTeam;
 import com.carolinarollergirls.scoreboard.core.interfaces.Rulesets;
 import com.carolinarollergirls.scoreboard.core.interfaces.Rulesets.Ruleset;
 import com.carolinarollergirls.scoreboard.core.interfaces.ScoreBoard;
+import com.carolinarollergirls.scoreboard.core.interfaces.Skater;
 import com.carolinarollergirls.scoreboard.core.interfaces.Team;
 import com.carolinarollergirls.scoreboard.core.interfaces.Timeout;
 import com.carolinarollergirls.scoreboard.core.interfaces.TimeoutOwner;
@@ -45,6 +48,7 @@ import com.carolinarollergirls.scoreboard.rules.Rule;
 import com.carolinarollergirls.scoreboard.rules.RuleDefinition;
 import com.carolinarollergirls.scoreboard.utils.BasePath;
 import com.carolinarollergirls.scoreboard.utils.ClockConversion;
+import com.carolinarollergirls.scoreboard.utils.Logger;
 import com.carolinarollergirls.scoreboard.utils.ScoreBoardClock;
 import com.carolinarollergirls.scoreboard.utils.StatsbookExporter;
 import com.carolinarollergirls.scoreboard.utils.ValWithId;
@@ -192,6 +196,28 @@ public class GameImpl extends ScoreBoardEventProviderImpl<Game> implements Game
                 }
             }));
 
+        // keep the live statsbook (if enabled) up to date and write it out at the end of each period
+        ScoreBoardListener liveStatsbookListener = new ScoreBoardListener() {
+            @Override
+            public void scoreBoardChange(ScoreBoardEvent<?> event) {
+                if (scoreBoard.isInitialLoadDone() && getBooleanSetting(ScoreBoard.SETTING_LIVE_STATSBOOK)) {
+                    StatsbookExporter.requestLiveUpdate(GameImpl.this);
+                }
+            }
+        };
+        addScoreBoardListener(new ConditionalScoreBoardListener<>(this, IN_JAM, Boolean.FALSE, liveStatsbookListener));
+        addScoreBoardListener(new ConditionalScoreBoardListener<>(Skater.class, Skater.PENALTY, liveStatsbookListener));
+        addScoreBoardListener(new ConditionalScoreBoardListener<>(Penalty.class, Penalty.CODE, liveStatsbookListener));
+        addScoreBoardListener(
+            new ConditionalScoreBoardListener<>(this, IN_PERIOD, Boolean.FALSE, new ScoreBoardListener() {
+                @Override
+                public void scoreBoardChange(ScoreBoardEvent<?> event) {
+                    if (scoreBoard.isInitialLoadDone() && getBooleanSetting(ScoreBoard.SETTING_LIVE_STATSBOOK)) {
+                        execute(EXPORT, Source.OTHER);
+                    }
+                }
+            }));
+
         // handle changes to the ruleset (if following a preset ruleset)
         scoreBoard.getRulesets().addScoreBoardListener(
             new ConditionalScoreBoardListener<>(Ruleset.class, Ruleset.RULE, new ScoreBoardListener() {
@@ -408,8 +434,57 @@ public class GameImpl extends ScoreBoardEventProviderImpl<Game> implements Game
             jsonSnapshotter.writeFile();
             if (statsbookExporter == null) {
                 set(UPDATE_IN_PROGRESS, true);
-                statsbookExporter = new StatsbookExporter(this);
+                set(EXPORT_STATUS, ExportStatus.PENDING);
+                statsbookExporter = StatsbookExporter.submit(this);
+            }
+        } else if (prop == ARCHIVE) {
+            if (!isOfficialScore() || scoreBoard.getCurrentGame().getSourceElement() == this) {
+                Logger.printMessage("Only official games that are not the current game can be archived");
+                return;
+            }
+            new Thread() {
+                @Override
+                public void run() {
+                    archive();
+                }
+            }.start();
+        }
+    }
+
+    @Override
+    public void archive() {
+        scoreBoard.runInBatch(new Runnable() {
+            @Override
+            public void run() {
+                if (scoreBoard.getGame(getId()) != GameImpl.this) { return; }
+                // The core lock is held from writing the file to deleting the game, so no change can get lost.
+                try {
+                    jsonSnapshotter.writeCurrentState(ArchivedGameImpl.archiveFile(getId()));
+                } catch (Exception e) {
+                    Logger.printMessage("Not archiving game " + get(NAME) + " as its file could not be written: " +
+                                        e.getMessage());
+                    return;
+                }
+                ArchivedGame archived = scoreBoard.getOrCreate(ScoreBoard.ARCHIVED_GAME, getId());
+                archived.set(ArchivedGame.NAME, get(NAME));
+                archived.set(ArchivedGame.FILENAME, getFilename());
+                archived.set(ArchivedGame.RESTORING, false);
+                // Elements of this game listen to changes of the game (e.g. clocks to rules) and
+                // would react to the partially removed game. Only the parent needs to see the removals.
+                synchronized (scoreBoardEventListeners) {
+                    scoreBoardEventListeners.retainAll(Collections.singleton(getParent()));
+                }
+                delete();
             }
+        });
+    }
+
+    @Override
+    public void delete(Source source) {
+        synchronized (coreLock) {
+            jsonSnapshotter.close();
+            StatsbookExporter.discardLive(this);
+            super.delete(source);
         }
     }
 
@@ -990,6 +1065,7 @@ public class GameImpl extends ScoreBoardEventProviderImpl<Game> implements Game
             set(LAST_FILE_UPDATE,
                 LocalDateTime.now().format(DateTimeFormatter.ofLocalizedDateTime(FormatStyle.MEDIUM)));
         }
+        set(EXPORT_STATUS, success ? ExportStatus.DONE : ExportStatus.FAILED);
         set(UPDATE_IN_PROGRESS, false);
         statsbookExporter = null;
     }
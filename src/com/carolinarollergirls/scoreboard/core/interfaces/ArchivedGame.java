@@ -0,0 +1,27 @@
+package com.carolinarollergirls.scoreboard.core.interfaces;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import com.carolinarollergirls.scoreboard.event.Command;
+import com.carolinarollergirls.scoreboard.event.Property;
+import com.carolinarollergirls.scoreboard.event.ScoreBoardEventProvider;
+import com.carolinarollergirls.scoreboard.event.Value;
+
+/**
+ * A game that has been removed from the live state and is only kept in its
+ * archive file in config/archive. Restoring loads it back from that file.
+ */
+public interface ArchivedGame extends ScoreBoardEventProvider {
+    public void restore();
+    public File getArchiveFile();
+
+    public static Collection<Property<?>> props = new ArrayList<>();
+
+    public static final Value<String> NAME = new Value<>(String.class, "Name", "", props);
+    public static final Value<String> FILENAME = new Value<>(String.class, "Filename", "", props);
+    public static final Value<Boolean> RESTORING = new Value<>(Boolean.class, "Restoring", false, props);
+
+    public static final Command RESTORE = new Command("Restore", props);
+}
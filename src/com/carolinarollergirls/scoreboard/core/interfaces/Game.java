@@ -77,6 +77,10 @@ public interface Game extends ScoreBoardEventProvider {
 
     public void exportDone(boolean success);
 
+    // Write the game to its JSON file and replace it with an ArchivedGame.
+    // Must not be called with the core lock held.
+    public void archive();
+
     public enum State {
         PREPARED("Prepared"),
         RUNNING("Running"),
@@ -98,6 +102,29 @@ public interface Game extends ScoreBoardEventProvider {
         private String string;
     }
 
+    public enum ExportStatus {
+        NONE(""),
+        PENDING("Pending"),
+        RUNNING("Running"),
+        DONE("Done"),
+        FAILED("Failed");
+
+        ExportStatus(String str) { string = str; }
+
+        @Override
+        public String toString() {
+            return string;
+        }
+        public static ExportStatus fromString(String s) {
+            for (ExportStatus r : values()) {
+                if (r.toString().equals(s)) { return r; }
+            }
+            return null;
+        }
+
+        private String string;
+    }
+
     public static Collection<Property<?>> props = new ArrayList<>();
 
     public static final Value<String> NAME = new Value<>(String.class, "Name", "", props);
@@ -131,6 +158,8 @@ public interface Game extends ScoreBoardEventProvider {
     public static final Value<String> LAST_FILE_UPDATE = new Value<>(String.class, "LastFileUpdate", "Never", props);
     public static final Value<Boolean> UPDATE_IN_PROGRESS =
         new Value<>(Boolean.class, "UpdateInProgress", false, props);
+    public static final Value<ExportStatus> EXPORT_STATUS =
+        new Value<>(ExportStatus.class, "ExportStatus", ExportStatus.NONE, props);
     public static final Value<Boolean> STATSBOOK_EXISTS = new Value<>(Boolean.class, "StatsbookExists", false, props);
     public static final Value<Boolean> JSON_EXISTS = new Value<>(Boolean.class, "JsonExists", false, props);
     public static final Value<Boolean> CLOCK_DURING_FINAL_SCORE =
@@ -156,6 +185,7 @@ public interface Game extends ScoreBoardEventProvider {
     public static final Command START_OVERTIME = new Command("StartOvertime", props);
     public static final Command OFFICIAL_TIMEOUT = new Command("OfficialTimeout", props);
     public static final Command EXPORT = new Command("Export", props);
+    public static final Command ARCHIVE = new Command("Archive", props);
 
     public static final String SETTING_DEFAULT_NAME_FORMAT = "ScoreBoard.Game.DefaultNameFormat";
 
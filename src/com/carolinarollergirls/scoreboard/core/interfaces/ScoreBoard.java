@@ -27,6 +27,8 @@ public interface ScoreBoard extends ScoreBoardEventProvider {
 
     public Game getGame(String id);
 
+    public ArchivedGame getArchivedGame(String id);
+
     public PreparedTeam getPreparedTeam(String id);
 
     public CurrentGame getCurrentGame();
@@ -48,6 +50,7 @@ public interface ScoreBoard extends ScoreBoardEventProvider {
     public static final Child<Clients> CLIENTS = new Child<>(Clients.class, "Clients", props);
     public static final Child<Rulesets> RULESETS = new Child<>(Rulesets.class, "Rulesets", props);
     public static final Child<Game> GAME = new Child<>(Game.class, "Game", props);
+    public static final Child<ArchivedGame> ARCHIVED_GAME = new Child<>(ArchivedGame.class, "ArchivedGame", props);
     public static final Child<PreparedTeam> PREPARED_TEAM = new Child<>(PreparedTeam.class, "PreparedTeam", props);
     public static final Child<CurrentGame> CURRENT_GAME = new Child<>(CurrentGame.class, "CurrentGame", props);
 
@@ -58,4 +61,8 @@ public interface ScoreBoard extends ScoreBoardEventProvider {
     public static final String SETTING_AUTO_END_TTO = "ScoreBoard.AutoEndTTO";
     public static final String SETTING_USE_LT = "ScoreBoard.Penalties.UseLT";
     public static final String SETTING_STATSBOOK_INPUT = "ScoreBoard.Stats.InputFile";
+    public static final String SETTING_EXPORT_WORKERS = "ScoreBoard.Stats.ExportWorkers";
+    public static final String SETTING_LIVE_STATSBOOK = "ScoreBoard.Stats.LiveStatsbook";
+    public static final String SETTING_WS_COMPRESSION = "ScoreBoard.WS.Compression";
+    public static final String SETTING_WS_COMPRESSION_MIN_SIZE = "ScoreBoard.WS.CompressionMinSize";
 }
@@ -410,6 +410,7 @@ public abstract class ScoreBoardEventProviderImpl<C extends ScoreBoardEventProvi
             if (type == Role.class) { return (T) Role.fromString(sValue); }
             if (type == FloorPosition.class) { return (T) FloorPosition.fromString(sValue); }
             if (type == Game.State.class) { return (T) Game.State.fromString(sValue); }
+            if (type == Game.ExportStatus.class) { return (T) Game.ExportStatus.fromString(sValue); }
             if (type == Boolean.class) { return (T) Boolean.valueOf(sValue); }
             if (type == Integer.class) { return (T) Integer.valueOf(sValue); }
             if (type == Long.class) { return (T) Long.valueOf(sValue); }
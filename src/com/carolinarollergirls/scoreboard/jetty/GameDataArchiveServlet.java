@@ -0,0 +1,242 @@
+package com.carolinarollergirls.scoreboard.jetty;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+import com.carolinarollergirls.scoreboard.core.interfaces.ArchivedGame;
+import com.carolinarollergirls.scoreboard.core.interfaces.Clients.Device;
+import com.carolinarollergirls.scoreboard.core.interfaces.Game;
+import com.carolinarollergirls.scoreboard.core.interfaces.ScoreBoard;
+import com.carolinarollergirls.scoreboard.event.ConditionalScoreBoardListener;
+import com.carolinarollergirls.scoreboard.event.ScoreBoardEvent;
+import com.carolinarollergirls.scoreboard.event.ScoreBoardListener;
+import com.carolinarollergirls.scoreboard.utils.BasePath;
+import com.carolinarollergirls.scoreboard.utils.Logger;
+
+import io.prometheus.client.Histogram;
+
+/**
+ * Streams a zip with the JSON and statsbook files of the selected games (by
+ * id, comma separated in the game parameter) or of all games, including
+ * archived ones. Missing files of live games are generated via the usual
+ * export first, if the device may write. In that case the request is
+ * suspended until the exports are done, and only then the archive is written
+ * straight to the response.
+ */
+public class GameDataArchiveServlet extends HttpServlet {
+    public GameDataArchiveServlet(ScoreBoard sb) { scoreBoard = sb; }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+        throws ServletException, IOException {
+        String selection = request.getParameter("game");
+        Set<String> ids = selection == null ? null : new HashSet<>(Arrays.asList(selection.split(",")));
+        // Exporting changes the games, so other devices only get the files that are there already.
+        Device device = scoreBoard.getClients().getDevice(request.getSession().getId());
+        boolean mayExport = device != null && device.mayWrite();
+
+        Histogram.Timer timer = archiveDuration.startTimer();
+        Archive archive = new Archive(response, timer);
+        scoreBoard.runInBatch(new Runnable() {
+            @Override
+            public void run() {
+                for (Game g : scoreBoard.getAll(ScoreBoard.GAME)) {
+                    if (ids != null && !ids.contains(g.getId())) { continue; }
+                    GameFiles gf = new GameFiles(g.getFilename());
+                    if (mayExport &&
+                        (!gf.json.exists() || (scoreBoard.get(ScoreBoard.BLANK_STATSBOOK_FOUND) && !gf.xlsx.exists()))) {
+                        // generate the missing files and pick them up once that's done
+                        archive.addPending(gf, g);
+                        if (!g.get(Game.UPDATE_IN_PROGRESS)) {
+                            device.write();
+                            g.execute(Game.EXPORT);
+                        }
+                    } else {
+                        archive.files.add(gf);
+                    }
+                }
+                for (ArchivedGame ag : scoreBoard.getAll(ScoreBoard.ARCHIVED_GAME)) {
+                    if (ids != null && !ids.contains(ag.getId())) { continue; }
+                    // The export in html/game-data/json may be gone or stale, the archive file is what's restored.
+                    GameFiles gf = new GameFiles(ag.get(ArchivedGame.FILENAME));
+                    gf.json = ag.getArchiveFile();
+                    archive.files.add(gf);
+                }
+            }
+        });
+
+        boolean waiting = false;
+        try {
+            if (archive.files.isEmpty() && archive.pending.isEmpty()) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND, "No games found.");
+            } else if (archive.pending.isEmpty()) {
+                archive.write();
+            } else {
+                // Don't hold a request thread while the exports run, the archive is
+                // written once they are done.
+                archive.async = request.startAsync();
+                archive.async.setTimeout(0);
+                archive.timeout = timeouts.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        archive.finish();
+                    }
+                }, EXPORT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                waiting = true;
+                archive.exportDone();
+            }
+        } finally {
+            if (!waiting) { archive.removeListeners(); }
+        }
+    }
+
+    // The files of one request. The exports that are waited for each hold a
+    // count in remaining, as does the request until it is ready to be resumed.
+    private static class Archive {
+        private Archive(HttpServletResponse response, Histogram.Timer timer) {
+            this.response = response;
+            this.timer = timer;
+        }
+
+        // Must be called in the batch that starts the export.
+        private void addPending(GameFiles gf, Game g) {
+            remaining.incrementAndGet();
+            g.addScoreBoardListener(gf.exportListener(g, this));
+            pending.add(gf);
+        }
+
+        // Called with the core lock held, so only hand over to a request thread.
+        private void exportDone() {
+            if (remaining.decrementAndGet() == 0) { finish(); }
+        }
+
+        private void finish() {
+            if (!finished.compareAndSet(false, true)) { return; }
+            if (timeout != null) { timeout.cancel(false); }
+            async.start(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        removeListeners();
+                        for (GameFiles gf : pending) {
+                            if (!gf.exported) { Logger.printMessage("Timed out waiting for export of " + gf.filename); }
+                        }
+                        write();
+                    } catch (IOException e) {
+                        // The client went away.
+                    } finally { async.complete(); }
+                }
+            });
+        }
+
+        private void removeListeners() {
+            for (GameFiles gf : pending) { gf.game.removeScoreBoardListener(gf.listener); }
+        }
+
+        private void write() throws IOException {
+            response.setContentType("application/zip");
+            response.setHeader("Cache-Control", "no-cache");
+            response.setHeader("Expires", "-1");
+            response.setStatus(HttpServletResponse.SC_OK);
+            try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(response.getOutputStream())) {
+                for (GameFiles gf : files) { gf.addTo(zip); }
+                for (GameFiles gf : pending) { gf.addTo(zip); }
+                zip.finish();
+            }
+            timer.observeDuration();
+        }
+
+        private final HttpServletResponse response;
+        private final Histogram.Timer timer;
+        private final List<GameFiles> files = new ArrayList<>();
+        private final List<GameFiles> pending = new ArrayList<>();
+        private final AtomicInteger remaining = new AtomicInteger(1);
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+        private AsyncContext async;
+        private ScheduledFuture<?> timeout;
+    }
+
+    private static class GameFiles {
+        private GameFiles(String filename) {
+            this.filename = filename;
+            json = new File(BasePath.get(), "html/game-data/json/" + filename + ".json");
+            xlsx = new File(BasePath.get(), "html/game-data/xlsx/" + filename + ".xlsx");
+        }
+
+        private ScoreBoardListener exportListener(Game g, Archive archive) {
+            game = g;
+            listener = new ConditionalScoreBoardListener<>(g, Game.UPDATE_IN_PROGRESS, Boolean.FALSE,
+                                                           new ScoreBoardListener() {
+                                                               @Override
+                                                               public void scoreBoardChange(ScoreBoardEvent<?> e) {
+                                                                   if (exported) { return; }
+                                                                   exported = true;
+                                                                   archive.exportDone();
+                                                               }
+                                                           });
+            return listener;
+        }
+
+        private void addTo(ZipArchiveOutputStream zip) throws IOException {
+            addFile(zip, "json/" + filename + ".json", json);
+            addFile(zip, "xlsx/" + filename + ".xlsx", xlsx);
+        }
+
+        private static void addFile(ZipArchiveOutputStream zip, String name, File file) throws IOException {
+            if (!file.canRead()) { return; }
+            ZipArchiveEntry entry = new ZipArchiveEntry(name);
+            entry.setTime(file.lastModified());
+            zip.putArchiveEntry(entry);
+            Files.copy(file.toPath(), zip);
+            zip.closeArchiveEntry();
+        }
+
+        private String filename;
+        private File json;
+        private File xlsx;
+        private Game game;
+        private ScoreBoardListener listener;
+        private volatile boolean exported = false;
+    }
+
+    protected final ScoreBoard scoreBoard;
+
+    private static final long EXPORT_TIMEOUT_SECONDS = 300;
+
+    private static final ScheduledExecutorService timeouts =
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Game data archive timeouts");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+    private static final Histogram archiveDuration = Histogram.build()
+                                                         .name("crg_game_data_archive_duration_seconds")
+                                                         .help("Time spent streaming game data archives")
+                                                         .register();
+}
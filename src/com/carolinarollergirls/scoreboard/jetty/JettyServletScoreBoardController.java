@@ -67,13 +67,25 @@ public class JettyServletScoreBoardController {
         // Only keep the first two path components.
         mf = new FilterHolder(
             new MetricsFilter("jetty_http_request_latency_seconds", "Jetty HTTP request latency", 2, null));
+        // Needed for the event streams, which are handled asynchronously.
+        mf.setAsyncSupported(true);
         sch.addFilter(mf, "/*", EnumSet.of(DispatcherType.REQUEST));
 
         sch.setResourceBase((new File(BasePath.get(), "html")).getPath());
         ServletHolder sh = new ServletHolder(new DefaultServlet());
         sh.setInitParameter("cacheControl", "no-cache");
         sh.setInitParameter("etags", "true");
+        // The release build writes .gz copies of the static files.
+        sh.setInitParameter("precompressed", "gzip=.gz");
         sch.addServlet(sh, "/*");
+        // Third party libraries and fonts only change with a new release, so let
+        // browsers keep them for a while instead of revalidating on every load.
+        ServletHolder libs = new ServletHolder(new DefaultServlet());
+        libs.setInitParameter("cacheControl", "public, max-age=" + STATIC_LIBRARY_MAX_AGE_SECONDS);
+        libs.setInitParameter("etags", "true");
+        libs.setInitParameter("precompressed", "gzip=.gz");
+        sch.addServlet(libs, "/external/*");
+        sch.addServlet(libs, "/fonts/*");
 
         urlsServlet = new UrlsServlet(server);
         sch.addServlet(new ServletHolder(urlsServlet), "/urls/*");
@@ -85,12 +97,21 @@ public class JettyServletScoreBoardController {
         metricsServlet = new MetricsServlet();
         sch.addServlet(new ServletHolder(metricsServlet), "/metrics");
 
+        ServletHolder events = new ServletHolder(new StateEventsServlet(jsm));
+        events.setAsyncSupported(true);
+        sch.addServlet(events, "/Events/*");
+
         HttpServlet sjs = new SaveJsonScoreBoard(jsm);
         sch.addServlet(new ServletHolder(sjs), "/SaveJSON/*");
 
         HttpServlet ljs = new LoadJsonScoreBoard(scoreBoard);
         sch.addServlet(new ServletHolder(ljs), "/Load/*");
 
+        ServletHolder gda = new ServletHolder(new GameDataArchiveServlet(scoreBoard));
+        // Waits for exports without holding a thread.
+        gda.setAsyncSupported(true);
+        sch.addServlet(gda, "/GameData/*");
+
         HttpServlet ms = new MediaServlet(scoreBoard, new File(BasePath.get(), "html").getPath());
         sch.addServlet(new ServletHolder(ms), "/Media/*");
     }
@@ -145,4 +166,5 @@ public class JettyServletScoreBoardController {
     // things around in case it happens to help with forensics if something odd
     // is found while preparing the statsbook.
     protected static final int COOKIE_DURATION_SECONDS = 86400 * 15;
+    protected static final int STATIC_LIBRARY_MAX_AGE_SECONDS = 86400;
 }
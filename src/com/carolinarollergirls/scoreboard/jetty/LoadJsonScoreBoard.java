@@ -2,6 +2,7 @@ package com.carolinarollergirls.scoreboard.jetty;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -21,6 +22,7 @@ import com.carolinarollergirls.scoreboard.core.interfaces.ScoreBoard;
 import com.carolinarollergirls.scoreboard.event.ScoreBoardEventProvider.Flag;
 import com.carolinarollergirls.scoreboard.event.ScoreBoardEventProvider.Source;
 import com.carolinarollergirls.scoreboard.json.ScoreBoardJSONSetter;
+import com.carolinarollergirls.scoreboard.json.ScoreBoardJSONSetter.JSONSet;
 import com.carolinarollergirls.scoreboard.utils.StatsbookImporter;
 
 public class LoadJsonScoreBoard extends HttpServlet {
@@ -58,13 +60,10 @@ public class LoadJsonScoreBoard extends HttpServlet {
                             stream.close();
                             @SuppressWarnings("unchecked")
                             Map<String, Object> state = (Map<String, Object>) map.get("state");
-                            ScoreBoardJSONSetter.updateToCurrentVersion(state);
-                            scoreBoard.runInBatch(new Runnable() {
-                                @Override
-                                public void run() {
-                                    ScoreBoardJSONSetter.set(scoreBoard, state, Source.JSON);
-                                }
-                            });
+                            // Parse and stage without holding the core lock, then
+                            // apply one game at a time so running clocks aren't blocked.
+                            List<List<JSONSet>> staged = ScoreBoardJSONSetter.stage(state);
+                            ScoreBoardJSONSetter.setStaged(scoreBoard, staged, Source.JSON);
                             runningImports.decrementAndGet();
                             response.setContentType("text/plain");
                             response.setStatus(HttpServletResponse.SC_OK);
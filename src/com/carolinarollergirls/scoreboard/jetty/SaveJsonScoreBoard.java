@@ -1,10 +1,13 @@
 package com.carolinarollergirls.scoreboard.jetty;
 
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Iterator;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.SortedMap;
 import java.util.TreeMap;
 
 import javax.servlet.ServletException;
@@ -15,6 +18,9 @@ import javax.servlet.http.HttpServletResponse;
 import com.fasterxml.jackson.jr.ob.JSON;
 
 import com.carolinarollergirls.scoreboard.json.JSONStateManager;
+import com.carolinarollergirls.scoreboard.json.JSONStateManager.VersionedState;
+
+import io.prometheus.client.Counter;
 
 public class SaveJsonScoreBoard extends HttpServlet {
 
@@ -23,47 +29,131 @@ public class SaveJsonScoreBoard extends HttpServlet {
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
         throws ServletException, IOException {
-        // Use a TreeMap to keep output sorted.
-        Map<String, Object> state = new TreeMap<>(jsm.getState());
-
+        VersionedState vs = jsm.getVersionedState();
         String path = request.getParameter("path");
-        if (path != null) {
-            List<String> prefixes = Arrays.asList(path.split(","));
-            Iterator<String> it = state.keySet().iterator();
-            while (it.hasNext()) {
-                String key = it.next();
-                boolean keep = key.startsWith("ScoreBoard.Version");
-                for (String prefix : prefixes) {
-                    if (key.startsWith(prefix)) { keep = true; }
-                }
-                if (!keep) { it.remove(); }
-            }
+        String query = path == null ? "" : path;
+
+        // If the state hasn't changed since the last response to this query, the
+        // ETag can be checked without building the response again.
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        CachedETag cached;
+        synchronized (etags) { cached = etags.get(query); }
+        if (cached != null && cached.version == vs.getVersion() && matches(ifNoneMatch, cached.etag)) {
+            sendNotModified(response, cached.etag);
+            return;
+        }
+
+        SortedMap<String, Object> state = select(vs.getState(), path);
+        if (state.isEmpty()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "No objects found.");
+            return;
+        }
+        String json = JSON.std.with(JSON.Feature.PRETTY_PRINT_OUTPUT)
+                          .composeString()
+                          .startObject()
+                          .putObject("state", state)
+                          .end()
+                          .finish();
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        String etag = etag(body);
+        synchronized (etags) { etags.put(query, new CachedETag(vs.getVersion(), etag)); }
+        if (matches(ifNoneMatch, etag)) {
+            sendNotModified(response, etag);
+            return;
+        }
+
+        response.setContentType("application/json");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("Expires", "-1");
+        response.setHeader("ETag", etag);
+        response.setCharacterEncoding("utf-8");
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+        response.getOutputStream().flush();
+        response.setStatus(HttpServletResponse.SC_OK);
+    }
+
+    // Keys starting with any of the comma separated prefixes in path (all keys if
+    // path is null), plus the version. Each prefix is a range scan of the sorted
+    // state, as all keys with a given prefix sort directly after it.
+    protected static SortedMap<String, Object> select(SortedMap<String, Object> fullState, String path) {
+        SortedMap<String, Object> state;
+        if (path == null) {
+            state = new TreeMap<>(fullState);
+        } else {
+            state = new TreeMap<>();
+            addRange(state, fullState, "ScoreBoard.Version");
+            for (String prefix : path.split(",")) { addRange(state, fullState, prefix); }
         }
         // Users may use saves to share with the world, so remove secrets.
         Iterator<String> it = state.keySet().iterator();
         while (it.hasNext()) {
             if (it.next().endsWith("Secret")) { it.remove(); }
         }
+        return state;
+    }
 
-        if (state.isEmpty()) {
-            response.sendError(HttpServletResponse.SC_NOT_FOUND, "No objects found.");
+    private static void addRange(SortedMap<String, Object> to, SortedMap<String, Object> from, String prefix) {
+        if (prefix.isEmpty()) {
+            to.putAll(from);
         } else {
-            response.setContentType("application/json");
-            String json = JSON.std.with(JSON.Feature.PRETTY_PRINT_OUTPUT)
-                              .composeString()
-                              .startObject()
-                              .putObject("state", state)
-                              .end()
-                              .finish();
-
-            response.setHeader("Cache-Control", "no-cache");
-            response.setHeader("Expires", "-1");
-            response.setCharacterEncoding("utf-8");
-            response.getOutputStream().print(json);
-            response.getOutputStream().flush();
-            response.setStatus(HttpServletResponse.SC_OK);
+            to.putAll(from.subMap(prefix, prefix + Character.MAX_VALUE));
         }
     }
 
+    private static String etag(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            StringBuilder sb = new StringBuilder("\"");
+            for (int i = 0; i < 16; i++) { sb.append(String.format("%02x", digest[i])); }
+            return sb.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has SHA-256
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) { return false; }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || candidate.equals(etag)) { return true; }
+        }
+        return false;
+    }
+
+    private static void sendNotModified(HttpServletResponse response, String etag) {
+        notModified.inc();
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("ETag", etag);
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }
+
+    private static class CachedETag {
+        private CachedETag(long version, String etag) {
+            this.version = version;
+            this.etag = etag;
+        }
+
+        private final long version;
+        private final String etag;
+    }
+
     protected final JSONStateManager jsm;
+    // ETags of the most recent queries, so unchanged polls don't have to serialize the state.
+    private final Map<String, CachedETag> etags = new LinkedHashMap<String, CachedETag>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedETag> eldest) {
+            return size() > MAX_CACHED_ETAGS;
+        }
+    };
+
+    private static final int MAX_CACHED_ETAGS = 100;
+
+    private static final Counter notModified = Counter.build()
+                                                   .name("crg_json_save_not_modified")
+                                                   .help("JSON state requests answered with 304 Not Modified")
+                                                   .register();
 }
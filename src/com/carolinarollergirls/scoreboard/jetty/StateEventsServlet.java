@@ -0,0 +1,241 @@
+package com.carolinarollergirls.scoreboard.jetty;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.fasterxml.jackson.jr.ob.JSON;
+
+import com.carolinarollergirls.scoreboard.jetty.WS.PathTrie;
+import com.carolinarollergirls.scoreboard.json.JSONStateListener;
+import com.carolinarollergirls.scoreboard.json.JSONStateManager;
+import com.carolinarollergirls.scoreboard.utils.Logger;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+
+/**
+ * Read only stream of state updates as Server-Sent Events, for displays that
+ * never write. The paths to watch are given as comma separated path
+ * parameters, in the same syntax as a WS Register. Each event carries the
+ * same {"state": {...}} object a WebSocket would receive, starting with the
+ * current values of all watched keys. No device or client is created and the
+ * request is handled asynchronously, so it doesn't hold on to a request thread.
+ *
+ * Writes are non-blocking: events are queued per stream and sent whenever the
+ * connection can take more, so a stalled client holds up neither the state
+ * updates nor the keep-alives of other streams. A client that falls too far
+ * behind is dropped.
+ */
+public class StateEventsServlet extends HttpServlet {
+    public StateEventsServlet(JSONStateManager jsm) {
+        this.jsm = jsm;
+        keepAlive.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                for (EventStream es : streams.keySet()) { es.write(KEEP_ALIVE); }
+            }
+        }, KEEP_ALIVE_SECONDS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+        throws ServletException, IOException {
+        PathTrie paths = new PathTrie();
+        String[] params = request.getParameterValues("path");
+        if (params == null) {
+            paths.add("ScoreBoard");
+        } else {
+            for (String param : params) {
+                for (String p : param.split(",")) {
+                    if (!p.isEmpty()) { paths.add(p); }
+                }
+            }
+        }
+
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("utf-8");
+        response.setHeader("Cache-Control", "no-cache");
+        // Stop proxies from buffering the stream.
+        response.setHeader("X-Accel-Buffering", "no");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.flushBuffer();
+
+        AsyncContext async = request.startAsync();
+        async.setTimeout(0);
+        EventStream es = new EventStream(async, paths);
+        async.addListener(es);
+        streams.put(es, Boolean.TRUE);
+        connectionsActive.inc();
+        response.getOutputStream().setWriteListener(es);
+        jsm.register(es);
+    }
+
+    @Override
+    public void destroy() {
+        keepAlive.shutdownNow();
+        for (EventStream es : streams.keySet()) { es.close(); }
+    }
+
+    private class EventStream implements JSONStateListener, AsyncListener, WriteListener {
+        private EventStream(AsyncContext async, PathTrie paths) {
+            this.async = async;
+            this.paths = paths;
+        }
+
+        // State changes from JSONStateManager.
+        @Override
+        public void sendUpdates(Map<String, Object> state, Set<String> changed) {
+            Map<String, Object> updates = new HashMap<>();
+            for (String k : changed) {
+                if (paths.covers(k) && !k.endsWith("Secret")) { updates.put(k, state.get(k)); }
+            }
+            if (updates.isEmpty()) { return; }
+            Map<String, Object> json = new HashMap<>();
+            json.put("state", updates);
+            Histogram.Timer timer = messagesSentDuration.startTimer();
+            try {
+                String data =
+                    JSON.std.with(JSON.Feature.WRITE_NULL_PROPERTIES).composeString().addObject(json).finish();
+                // The JSON is written without line breaks, so it fits in a single data field.
+                write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                Logger.printMessage("Error encoding SSE update: " + e);
+                Logger.printStackTrace(e);
+            } finally { timer.observeDuration(); }
+        }
+
+        private synchronized void write(byte[] event) {
+            if (closed) { return; }
+            // Anything still queued will do just as well to keep the connection alive.
+            if (event == KEEP_ALIVE && !queue.isEmpty()) { return; }
+            queue.add(event);
+            queuedBytes += event.length;
+            if (queuedBytes > MAX_QUEUED_BYTES) {
+                Logger.printMessage("Dropping Server-Sent Events client that fell too far behind");
+                messagesSentFailures.inc();
+                close();
+                return;
+            }
+            onWritePossible();
+        }
+
+        // Send as much of the queue as the connection takes without blocking.
+        // The container calls this again once it can take more.
+        @Override
+        public synchronized void onWritePossible() {
+            if (closed) { return; }
+            try {
+                ServletOutputStream out = async.getResponse().getOutputStream();
+                while (out.isReady()) {
+                    byte[] event = queue.poll();
+                    if (event != null) {
+                        queuedBytes -= event.length;
+                        out.write(event);
+                        needsFlush = true;
+                    } else if (needsFlush) {
+                        needsFlush = false;
+                        out.flush();
+                    } else {
+                        return;
+                    }
+                }
+            } catch (Exception e) {
+                // Most likely the client went away.
+                messagesSentFailures.inc();
+                close();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            messagesSentFailures.inc();
+            close();
+        }
+
+        private synchronized void close() {
+            if (closed) { return; }
+            closed = true;
+            queue.clear();
+            streams.remove(this);
+            connectionsActive.dec();
+            jsm.unregister(this);
+            try {
+                async.complete();
+            } catch (IllegalStateException e) {
+                // already completed by the container
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            close();
+        }
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            close();
+        }
+        @Override
+        public void onError(AsyncEvent event) {
+            close();
+        }
+        @Override
+        public void onStartAsync(AsyncEvent event) {}
+
+        private final AsyncContext async;
+        private final PathTrie paths;
+        private final Deque<byte[]> queue = new ArrayDeque<>();
+        private long queuedBytes = 0;
+        private boolean needsFlush = false;
+        private boolean closed = false;
+    }
+
+    protected final JSONStateManager jsm;
+    private final Map<EventStream, Boolean> streams = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService keepAlive = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "SSE keep alive");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    // Comment lines are ignored by EventSource, but stop idle connections from
+    // being dropped by proxies and let us notice clients that went away.
+    private static final byte[] KEEP_ALIVE = ":\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    // More than a few full syncs of the state.
+    private static final long MAX_QUEUED_BYTES = 16 * 1024 * 1024;
+
+    private static final Gauge connectionsActive =
+        Gauge.build().name("crg_sse_active_connections").help("Current Server-Sent Events connections").register();
+    private static final Histogram messagesSentDuration = Histogram.build()
+                                                              .name("crg_sse_messages_sent_duration_seconds")
+                                                              .help("Time spent sending Server-Sent Events")
+                                                              .register();
+    private static final Counter messagesSentFailures = Counter.build()
+                                                            .name("crg_sse_messages_sent_failed")
+                                                            .help("Number of Server-Sent Events we failed to send")
+                                                            .register();
+}
@@ -0,0 +1,132 @@
+package com.carolinarollergirls.scoreboard.jetty;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+import org.eclipse.jetty.util.compression.CompressionPool;
+import org.eclipse.jetty.util.compression.DeflaterPool;
+import org.eclipse.jetty.websocket.api.BatchMode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.common.OpCode;
+import org.eclipse.jetty.websocket.common.extensions.compress.PerMessageDeflateExtension;
+
+import com.carolinarollergirls.scoreboard.core.interfaces.ScoreBoard;
+import com.carolinarollergirls.scoreboard.core.interfaces.Settings;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+
+/**
+ * permessage-deflate that sends messages below a minimum size uncompressed,
+ * which the extension allows for any message. Clock ticks and the like are
+ * only a few dozen bytes, deflating them costs more CPU than it saves on the
+ * wire. Big messages such as initial syncs are mostly repeated keys and
+ * compress very well.
+ *
+ * Jetty creates the extension itself, so the settings to read the minimum size
+ * from are handed over once via useSettings(). The size is read whenever a
+ * connection negotiates the extension.
+ */
+public class ThresholdDeflateExtension extends PerMessageDeflateExtension {
+    public static void useSettings(Settings s) { settings = s; }
+
+    @Override
+    public void setConfig(ExtensionConfig config) {
+        super.setConfig(config);
+        if (settings == null) { return; }
+        try {
+            minSize = Math.max(0, Integer.parseInt(settings.get(ScoreBoard.SETTING_WS_COMPRESSION_MIN_SIZE)));
+        } catch (NumberFormatException e) {}
+    }
+
+    // The deflating happens on whichever thread completes the previous write,
+    // so it is timed in the deflater rather than around outgoingFrame.
+    @Override
+    public void setDeflaterPool(DeflaterPool pool) {
+        super.setDeflaterPool(timedDeflaterPool);
+    }
+
+    @Override
+    public synchronized void outgoingFrame(Frame frame, WriteCallback callback, BatchMode batchMode) {
+        byte opCode = frame.getOpCode();
+        boolean wholeMessage = frame.isFin() && (opCode == OpCode.TEXT || opCode == OpCode.BINARY);
+        // Only skip the compressor while it has nothing queued, so messages
+        // can't overtake each other.
+        if (wholeMessage && frame.getPayloadLength() < minSize && compressing.get() == 0) {
+            uncompressedMessages.inc();
+            getNextOutgoing().outgoingFrame(frame, callback, batchMode);
+            return;
+        }
+        if (OpCode.isControlFrame(opCode)) {
+            super.outgoingFrame(frame, callback, batchMode);
+            return;
+        }
+        compressInputBytes.inc(frame.getPayloadLength());
+        compressing.incrementAndGet();
+        super.outgoingFrame(frame, new WriteCallback() {
+            @Override
+            public void writeSuccess() {
+                compressing.decrementAndGet();
+                if (callback != null) { callback.writeSuccess(); }
+            }
+            @Override
+            public void writeFailed(Throwable x) {
+                compressing.decrementAndGet();
+                if (callback != null) { callback.writeFailed(x); }
+            }
+        }, batchMode);
+    }
+
+    @Override
+    protected void nextOutgoingFrame(Frame frame, WriteCallback callback, BatchMode batchMode) {
+        if (!OpCode.isControlFrame(frame.getOpCode())) { compressOutputBytes.inc(frame.getPayloadLength()); }
+        super.nextOutgoingFrame(frame, callback, batchMode);
+    }
+
+    private static class TimedDeflater extends Deflater {
+        private TimedDeflater() { super(Deflater.DEFAULT_COMPRESSION, true); }
+
+        @Override
+        public int deflate(byte[] b, int off, int len, int flush) {
+            long start = System.nanoTime();
+            try {
+                return super.deflate(b, off, len, flush);
+            } finally { compressDuration.observe((System.nanoTime() - start) / 1e9); }
+        }
+    }
+
+    private final AtomicInteger compressing = new AtomicInteger();
+    private int minSize = 256;
+
+    private static volatile Settings settings;
+
+    // Same parameters as the pool of Jetty's extension factory.
+    private static final DeflaterPool timedDeflaterPool =
+        new DeflaterPool(CompressionPool.INFINITE_CAPACITY, Deflater.DEFAULT_COMPRESSION, true) {
+            @Override
+            protected Deflater newObject() {
+                return new TimedDeflater();
+            }
+        };
+
+    private static final Histogram compressDuration =
+        Histogram.build()
+            .name("crg_websocket_compress_duration_seconds")
+            .help("Time spent in each deflate call compressing outgoing WebSocket messages")
+            .register();
+    private static final Counter compressInputBytes = Counter.build()
+                                                          .name("crg_websocket_compress_input_bytes")
+                                                          .help("Bytes of WebSocket messages before compression")
+                                                          .register();
+    private static final Counter compressOutputBytes = Counter.build()
+                                                           .name("crg_websocket_compress_output_bytes")
+                                                           .help("Bytes of WebSocket messages after compression")
+                                                           .register();
+    private static final Counter uncompressedMessages =
+        Counter.build()
+            .name("crg_websocket_uncompressed_messages")
+            .help("WebSocket messages sent uncompressed as they were below the minimum size")
+            .register();
+}
@@ -1,11 +1,25 @@
 package com.carolinarollergirls.scoreboard.jetty;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -14,6 +28,7 @@ import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
 import org.eclipse.jetty.websocket.api.annotations.WebSocket;
+import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
 import org.eclipse.jetty.websocket.servlet.ServletUpgradeRequest;
 import org.eclipse.jetty.websocket.servlet.ServletUpgradeResponse;
 import org.eclipse.jetty.websocket.servlet.WebSocketCreator;
@@ -36,9 +51,11 @@ import com.carolinarollergirls.scoreboard.core.interfaces.Team;
 import com.carolinarollergirls.scoreboard.core.interfaces.Timeout;
 import com.carolinarollergirls.scoreboard.event.ScoreBoardEventProvider.Flag;
 import com.carolinarollergirls.scoreboard.event.ScoreBoardEventProvider.Source;
+import com.carolinarollergirls.scoreboard.json.BinaryStateEncoder;
 import com.carolinarollergirls.scoreboard.json.JSONStateListener;
 import com.carolinarollergirls.scoreboard.json.JSONStateManager;
 import com.carolinarollergirls.scoreboard.json.ScoreBoardJSONSetter;
+import com.carolinarollergirls.scoreboard.json.UpdateTrace;
 import com.carolinarollergirls.scoreboard.utils.Logger;
 
 import io.prometheus.client.Counter;
@@ -55,13 +72,28 @@ public class WS extends WebSocketServlet {
     @Override
     public void configure(WebSocketServletFactory factory) {
         factory.setCreator(new ScoreBoardWebSocketCreator());
+        ThresholdDeflateExtension.useSettings(sb.getSettings());
+        registerExtensions(factory);
+    }
+
+    // Jetty 9.4 deprecates getExtensionFactory() without offering another way
+    // to replace an extension's implementation, so this is the only option
+    // until the move to Jetty 10's extension registry.
+    @SuppressWarnings("deprecation")
+    private static void registerExtensions(WebSocketServletFactory factory) {
+        // Per frame compression can't skip small messages, so only offer permessage-deflate.
+        factory.getExtensionFactory().unregister("deflate-frame");
+        factory.getExtensionFactory().unregister("x-webkit-deflate-frame");
+        factory.getExtensionFactory().register("permessage-deflate", ThresholdDeflateExtension.class);
     }
 
     private boolean hasPermission(Device device, String action) {
         switch (action) {
         case "Register":
+        case "TraceAck":
         case "Ping": return true;
         case "Set":
+        case "SetBatch":
         case "StartNewGame":
         default: return device.mayWrite();
         }
@@ -70,6 +102,39 @@ public class WS extends WebSocketServlet {
     private ScoreBoard sb;
     private JSONStateManager jsm;
 
+    private static final Set<String> KNOWN_ACTIONS =
+        new HashSet<>(Arrays.asList("Register", "Set", "SetBatch", "StartNewGame", "TraceAck", "Ping"));
+    // Runs the messages of all clients, each client's one after another.
+    private static final ExecutorService inboundExecutor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "WS inbound");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private static final AtomicLong nextTraceId = new AtomicLong();
+    // Recent traces, so acks from clients can be matched up.
+    private static final Map<Long, UpdateTrace> traces =
+        Collections.synchronizedMap(new LinkedHashMap<Long, UpdateTrace>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, UpdateTrace> eldest) {
+                return size() > MAX_TRACES;
+            }
+        });
+    private static final int MAX_TRACES = 1000;
+    private static final int TRACE_ACK_INTERVAL = 10;
+    // Maximum number of keys per initial sync message.
+    private static final int SYNC_CHUNK_KEYS = 500;
+    private static final ExecutorService syncExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "WS initial sync");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
     private static final Gauge connectionsActive =
         Gauge.build().name("crg_websocket_active_connections").help("Current WebSocket connections").register();
     private static final Counter messagesReceived = Counter.build()
@@ -80,6 +145,40 @@ public class WS extends WebSocketServlet {
                                                               .name("crg_websocket_messages_sent_duration_seconds")
                                                               .help("Time spent sending WebSocket messages")
                                                               .register();
+    private static final Histogram encodeDuration = Histogram.build()
+                                                        .name("crg_websocket_messages_encode_duration_seconds")
+                                                        .help("Time spent encoding WebSocket messages")
+                                                        .labelNames("protocol")
+                                                        .register();
+    private static final Counter bytesSent = Counter.build()
+                                                 .name("crg_websocket_bytes_sent")
+                                                 .help("Bytes of WebSocket messages sent, before compression")
+                                                 .labelNames("protocol")
+                                                 .register();
+    private static final Histogram setBatchSize = Histogram.build()
+                                                      .name("crg_websocket_set_batch_size")
+                                                      .help("Number of sets in WebSocket SetBatch actions")
+                                                      .exponentialBuckets(1, 2, 8)
+                                                      .register();
+    private static final Histogram commandLatency =
+        Histogram.build()
+            .name("crg_websocket_command_latency_seconds")
+            .help("Time from receiving a WebSocket message until it has been handled")
+            .labelNames("action")
+            .register();
+    private static final Gauge inboundQueued = Gauge.build()
+                                                   .name("crg_websocket_inbound_queued")
+                                                   .help("WebSocket messages received but not yet handled")
+                                                   .register();
+    private static final Histogram traceRoundTrip =
+        Histogram.build()
+            .name("crg_websocket_trace_round_trip_seconds")
+            .help("Time from receiving a sampled command until a device acknowledged the resulting update")
+            .register();
+    private static final Counter syncChunksSent = Counter.build()
+                                                      .name("crg_websocket_sync_chunks_sent")
+                                                      .help("Number of initial sync chunks sent on WebSockets")
+                                                      .register();
     private static final Counter messagesSentFailures = Counter.build()
                                                             .name("crg_websocket_messages_sent_failed")
                                                             .help("Number of WebSocket messages we failed to send")
@@ -95,24 +194,73 @@ public class WS extends WebSocketServlet {
             if (source == null) { source = "CUSTOM CLIENT"; }
             String platform = baseRequest.getParameter("platform");
             if (platform == null) { platform = baseRequest.getHeader("User-Agent"); }
-            return new ScoreBoardWebSocket(httpSessionId, remoteAddress, source, platform);
+            boolean binary = "binary".equals(baseRequest.getParameter("protocol"));
+            if (!Boolean.parseBoolean(sb.getSettings().get(ScoreBoard.SETTING_WS_COMPRESSION))) {
+                // Don't negotiate any extensions.
+                response.setExtensions(new ArrayList<ExtensionConfig>());
+            }
+            return new ScoreBoardWebSocket(httpSessionId, remoteAddress, source, platform, binary);
         }
     }
 
     @WebSocket(maxTextMessageSize = 1024 * 1024)
     public class ScoreBoardWebSocket implements JSONStateListener {
 
-        public ScoreBoardWebSocket(String httpSessionId, String remoteAddress, String source, String platform) {
+        public ScoreBoardWebSocket(String httpSessionId, String remoteAddress, String source, String platform,
+                                   boolean binary) {
             device = sb.getClients().getOrAddDevice(httpSessionId);
             sbClient = sb.getClients().addClient(device.getId(), remoteAddress, source, platform);
+            // Clients that asked for it get state updates as binary frames, see
+            // BinaryStateEncoder. Everything else stays JSON.
+            binaryEncoder = binary ? new BinaryStateEncoder() : null;
         }
 
         @OnWebSocketMessage
-        public synchronized void onMessage(Session session, String message_data) {
+        public void onMessage(Session session, String message_data) {
             messagesReceived.inc();
+            InboundMessage message;
+            try {
+                message = new InboundMessage(JSON.std.mapFrom(message_data));
+            } catch (Exception je) {
+                Logger.printMessage("Error handling JSON message: " + je);
+                Logger.printStackTrace(je);
+                return;
+            }
+            // Acks only record a measurement, so they must not queue up in front
+            // of the commands whose latency they measure.
+            if ("TraceAck".equals(message.json.get("action"))) {
+                traceAck(message);
+                return;
+            }
+            // Handled on another thread, so commands don't wait for updates
+            // being sent to this client and vice versa. Messages from one
+            // client are still handled one at a time, in order.
+            inbound.add(message);
+            inboundQueued.inc();
+            if (inboundScheduled.compareAndSet(false, true)) { scheduleInbound(); }
+        }
+
+        private void scheduleInbound() {
+            inboundExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    InboundMessage m;
+                    while ((m = inbound.poll()) != null) {
+                        inboundQueued.dec();
+                        handleMessage(m);
+                    }
+                    inboundScheduled.set(false);
+                    // Catch messages that arrived after the loop ended.
+                    if (!inbound.isEmpty() && inboundScheduled.compareAndSet(false, true)) { scheduleInbound(); }
+                }
+            });
+        }
+
+        private void handleMessage(InboundMessage message) {
+            String action = null;
             try {
-                Map<String, Object> json = JSON.std.mapFrom(message_data);
-                String action = (String) json.get("action");
+                Map<String, Object> json = message.json;
+                action = (String) json.get("action");
                 if (!hasPermission(device, action)) {
                     json = new HashMap<>();
                     json.put("authorization", "Not authorized for " + action);
@@ -125,41 +273,68 @@ public class WS extends WebSocketServlet {
                     if (jsonPaths != null) {
                         Set<String> newPaths = new TreeSet<>();
                         for (Object p : jsonPaths) { newPaths.add((String) p); }
-                        // Send on updates for the newly registered paths.
+                        // Send on the current values for the newly registered paths.
                         PathTrie pt = new PathTrie();
                         pt.addAll(newPaths);
-                        sendWSUpdatesForPaths(pt, state.keySet());
-                        this.paths.addAll(newPaths);
+                        synchronized (this) {
+                            this.paths.addAll(newPaths);
+                            registered = true;
+                            if (haveState) { queueSync(pt, state.keySet()); }
+                        }
                     }
                     break;
                 case "Set":
                     sbClient.write();
-                    String key = (String) json.get("key");
-                    Object value = json.get("value");
-                    String v;
-                    if (value == null) {
-                        // Null deletes the setting.
-                        v = null;
-                    } else {
-                        v = value.toString();
-                    }
-                    Flag flag = null;
-                    String f = (String) json.get("flag");
-                    if ("reset".equals(f)) { flag = Flag.RESET; }
-                    if ("change".equals(f)) { flag = Flag.CHANGE; }
-                    final ScoreBoardJSONSetter.JSONSet js = new ScoreBoardJSONSetter.JSONSet(key, v, flag);
-                    sb.runInBatch(new Runnable() {
+                    final ScoreBoardJSONSetter.JSONSet js = toJSONSet(json);
+                    runInTracedBatch(message, new Runnable() {
                         @Override
                         public void run() {
                             ScoreBoardJSONSetter.set(sb, Collections.singletonList(js), Source.WS);
                         }
                     });
                     break;
+                case "SetBatch":
+                    // Many sets applied in a single batch, so they cause only
+                    // one update to all clients. The ack tells the client they
+                    // have been applied, so it can send further sets without
+                    // waiting for the resulting state. Sets the scoreboard
+                    // could not apply are listed in the ack, sets an element
+                    // ignores (e.g. write protected values) are not.
+                    sbClient.write();
+                    Object requestId = json.get("id");
+                    final List<ScoreBoardJSONSetter.JSONSet> sets = new ArrayList<>();
+                    for (Object set : (List<?>) json.get("sets")) {
+                        @SuppressWarnings("unchecked")
+                        Map<String, Object> setJson = (Map<String, Object>) set;
+                        sets.add(toJSONSet(setJson));
+                    }
+                    json = new HashMap<>();
+                    json.put("ack", requestId);
+                    final List<String> failed = new ArrayList<>();
+                    try {
+                        runInTracedBatch(message, new Runnable() {
+                            @Override
+                            public void run() {
+                                failed.addAll(ScoreBoardJSONSetter.set(sb, sets, Source.WS));
+                            }
+                        });
+                        if (!failed.isEmpty()) {
+                            json.put("error", "Could not apply " + failed.size() + " of " + sets.size() + " sets");
+                            json.put("failed", failed);
+                        }
+                    } catch (RuntimeException e) {
+                        Logger.printMessage("Error applying SetBatch: " + e);
+                        Logger.printStackTrace(e);
+                        json.put("error", e.toString());
+                    }
+                    setBatchSize.observe(sets.size());
+                    send(json);
+                    break;
                 case "StartNewGame":
                     sbClient.write();
                     @SuppressWarnings("unchecked")
                     final Map<String, Object> data = (Map<String, Object>) json.get("data");
-                    sb.runInBatch(new Runnable() {
+                    runInTracedBatch(message, new Runnable() {
                         @Override
                         public void run() {
                             PreparedTeam t1 = sb.getPreparedTeam((String) data.get("Team1"));
@@ -244,14 +419,64 @@ public class WS extends WebSocketServlet {
             } catch (Exception je) {
                 Logger.printMessage("Error handling JSON message: " + je);
                 Logger.printStackTrace(je);
+            } finally {
+                commandLatency.labels(KNOWN_ACTIONS.contains(action) ? action : "other")
+                    .observe((System.nanoTime() - message.received) / 1e9);
             }
         }
 
+        // The client has processed an update caused by a traced command.
+        private void traceAck(InboundMessage message) {
+            try {
+                UpdateTrace trace = traces.get(((Number) message.json.get("trace")).longValue());
+                if (trace != null) { traceRoundTrip.observe((System.nanoTime() - trace.getReceived()) / 1e9); }
+            } catch (Exception e) {
+                Logger.printMessage("Error handling JSON message: " + e);
+            } finally {
+                commandLatency.labels("TraceAck").observe((System.nanoTime() - message.received) / 1e9);
+            }
+        }
+
+        // Commands that change the state are traced, so the updates they cause
+        // carry the trace id and the time until they are sent can be measured.
+        private void runInTracedBatch(InboundMessage message, final Runnable r) {
+            UpdateTrace trace = new UpdateTrace(nextTraceId.incrementAndGet(), message.received);
+            traces.put(trace.getId(), trace);
+            trace.run(new Runnable() {
+                @Override
+                public void run() {
+                    sb.runInBatch(r);
+                }
+            });
+        }
+
+        private ScoreBoardJSONSetter.JSONSet toJSONSet(Map<String, Object> json) {
+            String key = (String) json.get("key");
+            Object value = json.get("value");
+            String v;
+            if (value == null) {
+                // Null deletes the setting.
+                v = null;
+            } else {
+                v = value.toString();
+            }
+            Flag flag = null;
+            String f = (String) json.get("flag");
+            if ("reset".equals(f)) { flag = Flag.RESET; }
+            if ("change".equals(f)) { flag = Flag.CHANGE; }
+            return new ScoreBoardJSONSetter.JSONSet(key, v, flag);
+        }
+
         public void send(Map<String, Object> json) {
             Histogram.Timer timer = messagesSentDuration.startTimer();
             try {
-                wsSession.getRemote().sendStringByFuture(
-                    JSON.std.with(JSON.Feature.WRITE_NULL_PROPERTIES).composeString().addObject(json).finish());
+                Histogram.Timer encodeTimer = encodeDuration.labels("json").startTimer();
+                String message =
+                    JSON.std.with(JSON.Feature.WRITE_NULL_PROPERTIES).composeString().addObject(json).finish();
+                encodeTimer.observeDuration();
+                // Close enough, nearly all of it is ASCII.
+                bytesSent.labels("json").inc(message.length());
+                synchronized (sendLock) { wsSession.getRemote().sendStringByFuture(message); }
             } catch (Exception e) {
                 Logger.printMessage("Error sending JSON update: " + e);
                 Logger.printStackTrace(e);
@@ -281,11 +506,39 @@ public class WS extends WebSocketServlet {
 
         @OnWebSocketClose
         public void onClose(int closeCode, String message) {
+            synchronized (this) { pendingSync.clear(); }
             connectionsActive.dec();
             jsm.unregister(this);
+            // Before removing the client, which saves the device's latest access time.
+            device.access();
             sb.getClients().removeClient(sbClient);
+        }
 
-            device.access();
+        public void sendState(Map<String, Object> updates) { sendState(updates, null); }
+
+        public void sendState(Map<String, Object> updates, UpdateTrace trace) {
+            // Only some traces are sent on for the clients to acknowledge, every display
+            // acking every command would put too much load on the server.
+            Long ackId = trace != null && trace.getId() % TRACE_ACK_INTERVAL == 0 ? trace.getId() : null;
+            if (binaryEncoder == null) {
+                Map<String, Object> json = new HashMap<>();
+                json.put("state", updates);
+                if (ackId != null) { json.put("trace", ackId); }
+                send(json);
+                return;
+            }
+            Histogram.Timer timer = messagesSentDuration.startTimer();
+            try {
+                Histogram.Timer encodeTimer = encodeDuration.labels("binary").startTimer();
+                byte[] message = binaryEncoder.encode(updates, ackId);
+                encodeTimer.observeDuration();
+                bytesSent.labels("binary").inc(message.length);
+                synchronized (sendLock) { wsSession.getRemote().sendBytesByFuture(ByteBuffer.wrap(message)); }
+            } catch (Exception e) {
+                Logger.printMessage("Error sending binary update: " + e);
+                Logger.printStackTrace(e);
+                messagesSentFailures.inc();
+            } finally { timer.observeDuration(); }
         }
 
         public void sendError(String message) {
@@ -297,68 +550,239 @@ public class WS extends WebSocketServlet {
         // State changes from JSONStateManager.
         @SuppressWarnings("hiding")
         @Override
-        public synchronized void sendUpdates(Map<String, Object> state, Set<String> changed) {
+        public void sendUpdates(Map<String, Object> state, Set<String> changed) {
+            sendUpdates(state, changed, null);
+        }
+
+        @SuppressWarnings("hiding")
+        @Override
+        public synchronized void sendUpdates(Map<String, Object> state, Set<String> changed, UpdateTrace trace) {
+            long start = System.nanoTime();
             this.state = state;
-            sendWSUpdatesForPaths(paths, changed);
+            if (!haveState) {
+                // The full state, for any paths registered before it arrived.
+                haveState = true;
+                if (registered) { queueSync(paths, changed); }
+                return;
+            }
+            if (sendWSUpdatesForPaths(paths, changed, trace) && trace != null) {
+                long sent = System.nanoTime();
+                UpdateTrace.observe("dispatch", trace.getApplied(), start);
+                UpdateTrace.observe("send", start, sent);
+                UpdateTrace.observe("total", trace.getReceived(), sent);
+            }
         }
 
-        private void sendWSUpdatesForPaths(PathTrie watchedPaths, Set<String> changed) {
+        // Returns whether there was anything to send.
+        private boolean sendWSUpdatesForPaths(PathTrie watchedPaths, Set<String> changed, UpdateTrace trace) {
             Map<String, Object> updates = new HashMap<>();
             for (String k : changed) {
-                if (watchedPaths.covers(k) && !k.endsWith("Secret")) { updates.put(k, state.get(k)); }
+                if (watchedPaths.covers(k) && !k.endsWith("Secret")) {
+                    updates.put(k, state.get(k));
+                    // The client now has the latest value.
+                    pendingSync.remove(k);
+                }
+            }
+            if (updates.size() == 0) { return false; }
+            sendState(updates, trace);
+            return true;
+        }
+
+        // Initial sync of all watched keys, hot keys first. This is sent in
+        // chunks so the client can start displaying things early and live
+        // updates are not stuck behind one huge message.
+        private void queueSync(PathTrie watchedPaths, Set<String> keys) {
+            List<String> hot = new ArrayList<>();
+            List<String> game = new ArrayList<>();
+            List<String> rest = new ArrayList<>();
+            Object currentGame = state.get("ScoreBoard.CurrentGame.Game");
+            for (String k : keys) {
+                if (!watchedPaths.covers(k) || k.endsWith("Secret")) { continue; }
+                switch (syncPriority(k, currentGame == null ? null : currentGame.toString())) {
+                case 0: hot.add(k); break;
+                case 1: game.add(k); break;
+                default: rest.add(k); break;
+                }
+            }
+            boolean idle = pendingSync.isEmpty();
+            pendingSync.addAll(hot);
+            pendingSync.addAll(game);
+            pendingSync.addAll(rest);
+            if (idle) {
+                if (pendingSync.isEmpty()) {
+                    sendSyncComplete();
+                } else {
+                    scheduleSyncChunk();
+                }
+            }
+        }
+
+        private void scheduleSyncChunk() {
+            syncExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    sendSyncChunk();
+                }
+            });
+        }
+
+        // Each chunk is its own task, so live updates and other connections
+        // get their turn in between.
+        private synchronized void sendSyncChunk() {
+            if (pendingSync.isEmpty()) { return; }
+            Map<String, Object> updates = new HashMap<>();
+            Iterator<String> it = pendingSync.iterator();
+            while (it.hasNext() && updates.size() < SYNC_CHUNK_KEYS) {
+                String k = it.next();
+                it.remove();
+                // Use the current value, it may have changed since the sync was queued.
+                if (state.containsKey(k)) { updates.put(k, state.get(k)); }
+            }
+            if (!updates.isEmpty()) {
+                sendState(updates);
+                syncChunksSent.inc();
+            }
+            if (pendingSync.isEmpty()) {
+                sendSyncComplete();
+            } else {
+                scheduleSyncChunk();
             }
-            if (updates.size() == 0) { return; }
+        }
+
+        private void sendSyncComplete() {
             Map<String, Object> json = new HashMap<>();
-            json.put("state", updates);
+            json.put("syncComplete", true);
             send(json);
-            updates.clear();
         }
 
         protected Client sbClient;
         protected Device device;
         protected PathTrie paths = new PathTrie();
         private Map<String, Object> state = new HashMap<>();
+        private boolean haveState = false;
+        private boolean registered = false;
+        private Set<String> pendingSync = new LinkedHashSet<>();
         private Session wsSession;
+        private final BinaryStateEncoder binaryEncoder;
+        private final Queue<InboundMessage> inbound = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean inboundScheduled = new AtomicBoolean();
+        // Messages are sent from the inbound, update and sync threads.
+        private final Object sendLock = new Object();
     }
 
-    protected static class PathTrie {
-        boolean exists = false;
-        Map<String, PathTrie> trie = new HashMap<>();
+    private static class InboundMessage {
+        private InboundMessage(Map<String, Object> json) { this.json = json; }
 
+        private final Map<String, Object> json;
+        private final long received = System.nanoTime();
+    }
+
+    // 0 for the keys a display needs first (clocks, scores, positions and the
+    // like of the current game), 1 for the rest of the current game and 2 for
+    // everything else.
+    protected static int syncPriority(String key, String currentGame) {
+        String rest = null;
+        if (key.startsWith("ScoreBoard.CurrentGame.")) {
+            rest = key.substring("ScoreBoard.CurrentGame.".length());
+        } else if (currentGame != null && key.startsWith("ScoreBoard.Game(" + currentGame + ").")) {
+            rest = key.substring("ScoreBoard.Game(".length() + currentGame.length() + 2);
+        }
+        if (rest == null) { return 2; }
+        if (rest.startsWith("Clock(") || rest.indexOf('.') < 0) { return 0; }
+        if (rest.startsWith("Team(")) {
+            String teamRest = rest.substring(rest.indexOf(").") + 2);
+            if (teamRest.startsWith("Position(") || teamRest.indexOf('.') < 0) { return 0; }
+        }
+        return 1;
+    }
+
+    // Registered paths, matched against keys segment by segment. Segments
+    // are separated by '.' or '(', so the ')' closing an id is part of the
+    // segment before it. A path covers all keys that start with its segments.
+    // A "(*)" segment matches any id, which may contain dots. Keys are scanned
+    // in place, so checking one doesn't allocate.
+    protected static class PathTrie {
         public void addAll(Set<String> c) {
             for (String p : c) { add(p); }
         }
         public void add(String path) {
-            String[] p = path.split("[.(]");
+            int end = trimmedEnd(path);
             PathTrie head = this;
-            for (int i = 0; !head.exists && i < p.length; i++) {
-                if (head.trie.containsKey(p[i])) {
-                    head = head.trie.get(p[i]);
-                } else {
-                    PathTrie child = new PathTrie();
-                    head.trie.put(p[i], child);
-                    head = child;
-                }
+            for (int pos = 0; !head.exists && hasSegment(path, pos, end);) {
+                int segmentEnd = segmentEnd(path, pos, end);
+                PathTrie child = head.child(path, pos, segmentEnd);
+                if (child == null) { child = head.addChild(path.substring(pos, segmentEnd)); }
+                head = child;
+                pos = segmentEnd + 1;
             }
             head.exists = true;
         }
-        public boolean covers(String p) { return _covers(p.split("[.(]"), 0); }
-        private boolean _covers(String[] p, int i) {
+        public boolean covers(String p) { return covers(p, 0, trimmedEnd(p)); }
+        private boolean covers(String p, int pos, int end) {
             PathTrie head = this;
-            for (;; i++) {
+            for (;;) {
                 if (head.exists) { return true; }
-                if (i >= p.length) { return false; }
+                if (!hasSegment(p, pos, end)) { return false; }
                 // Allow Blah(*).
-                if (head.trie.containsKey("*)")) {
-                    int j;
-                    // id captured by * might contain . and thus be split - find the end
-                    for (j = i; j < p.length && !p[j].endsWith(")"); j++)
-                        ;
-                    if (head.trie.get("*)")._covers(p, j + 1)) { return true; }
-                }
-                head = head.trie.get(p[i]);
+                if (head.wildcard != null && head.wildcard.covers(p, idEnd(p, pos, end), end)) { return true; }
+                int segmentEnd = segmentEnd(p, pos, end);
+                head = head.child(p, pos, segmentEnd);
                 if (head == null) { return false; }
+                pos = segmentEnd + 1;
             }
         }
+
+        private PathTrie child(String p, int start, int end) {
+            int length = end - start;
+            for (int i = 0; i < childCount; i++) {
+                String name = names[i];
+                if (name.length() == length && p.regionMatches(start, name, 0, length)) { return children[i]; }
+            }
+            return null;
+        }
+        private PathTrie addChild(String name) {
+            if (childCount == names.length) {
+                names = Arrays.copyOf(names, childCount * 2 + 1);
+                children = Arrays.copyOf(children, childCount * 2 + 1);
+            }
+            PathTrie child = new PathTrie();
+            names[childCount] = name;
+            children[childCount++] = child;
+            if (name.equals("*)")) { wildcard = child; }
+            return child;
+        }
+
+        // Trailing separators don't form segments.
+        private static int trimmedEnd(String p) {
+            int end = p.length();
+            while (end > 0 && isSeparator(p.charAt(end - 1))) { end--; }
+            return end;
+        }
+        private static boolean hasSegment(String p, int pos, int end) {
+            // An empty string is a single empty segment.
+            return pos < end || (pos == 0 && p.isEmpty());
+        }
+        private static int segmentEnd(String p, int pos, int end) {
+            while (pos < end && !isSeparator(p.charAt(pos))) { pos++; }
+            return pos;
+        }
+        // Start of the segment after the id beginning at pos. The id captured
+        // by * might contain . and thus span several segments, it ends with
+        // the first segment ending in ')'.
+        private static int idEnd(String p, int pos, int end) {
+            while (hasSegment(p, pos, end)) {
+                int segmentEnd = segmentEnd(p, pos, end);
+                if (segmentEnd > pos && p.charAt(segmentEnd - 1) == ')') { return segmentEnd + 1; }
+                pos = segmentEnd + 1;
+            }
+            return end + 1;
+        }
+        private static boolean isSeparator(char c) { return c == '.' || c == '('; }
+
+        private boolean exists = false;
+        private String[] names = new String[0];
+        private PathTrie[] children = new PathTrie[0];
+        private int childCount = 0;
+        private PathTrie wildcard = null;
     }
 }
@@ -7,7 +7,9 @@ import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -19,7 +21,9 @@ import com.fasterxml.jackson.jr.ob.JSON;
 
 import com.carolinarollergirls.scoreboard.core.interfaces.ScoreBoard;
 import com.carolinarollergirls.scoreboard.event.ScoreBoardEventProvider.Source;
+import com.carolinarollergirls.scoreboard.json.ScoreBoardJSONSetter.JSONSet;
 import com.carolinarollergirls.scoreboard.utils.Logger;
+import com.carolinarollergirls.scoreboard.utils.Version;
 
 import io.prometheus.client.Histogram;
 
@@ -50,19 +54,21 @@ public class AutoSaveJSONState implements Runnable {
                 File from = getFile(--n);
                 if (from.exists()) { from.renameTo(to); }
             }
-            writeAutoSave(getFile(0));
+            Map<String, Object> state = jsm.getState();
+            writeAutoSave(getFile(0), state);
+            writeCheckpoint(state);
         } catch (Exception e) { Logger.printMessage("WARNING: Unable to auto-save scoreboard : " + e.getMessage()); }
         timer.observeDuration();
     }
 
-    private void writeAutoSave(File file) {
+    private void writeAutoSave(File file, Map<String, Object> state) {
         File tmp = null;
         OutputStreamWriter out = null;
         try {
             String json = JSON.std.with(JSON.Feature.PRETTY_PRINT_OUTPUT)
                               .composeString()
                               .startObject()
-                              .putObject("state", new TreeMap<>(jsm.getState()))
+                              .putObject("state", new TreeMap<>(state))
                               .end()
                               .finish();
             tmp = File.createTempFile(file.getName(), ".tmp", dir);
@@ -84,6 +90,19 @@ public class AutoSaveJSONState implements Runnable {
         }
     }
 
+    // Written after the JSON autosave, so it is only newer than that if both were written.
+    private void writeCheckpoint(Map<String, Object> state) {
+        Histogram.Timer timer = checkpointDuration.startTimer();
+        try {
+            BinaryStateCheckpoint.write(state instanceof SortedMap ? state : new TreeMap<>(state),
+                                        String.valueOf(Version.get()), getCheckpointFile(dir));
+        } catch (Exception e) {
+            Logger.printMessage("Error writing binary checkpoint: " + e.getMessage());
+            getCheckpointFile(dir).delete();
+        }
+        timer.observeDuration();
+    }
+
     private void backupAutoSavedFiles() {
         SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss");
         File mainBackupDir = new File(dir, "backup");
@@ -111,13 +130,18 @@ public class AutoSaveJSONState implements Runnable {
         return new File(dir, ("scoreboard-" + (n * INTERVAL_SECONDS) + "-secs-ago.json"));
     }
 
+    public static File getCheckpointFile(File dir) { return new File(dir, "scoreboard-checkpoint.bin"); }
+
     public static boolean loadAutoSave(ScoreBoard scoreBoard, File dir) {
+        if (loadCheckpoint(scoreBoard, dir)) { return true; }
         for (int i = 0; i <= AUTOSAVE_FILES; i++) {
             File f = getFile(i, dir);
             if (!f.exists()) { continue; }
             try {
+                long start = System.nanoTime();
                 loadFile(scoreBoard, f, Source.AUTOSAVE);
-                Logger.printMessage("Loaded auto-saved scoreboard from " + f.getPath());
+                Logger.printMessage("Loaded auto-saved scoreboard from " + f.getPath() + " in " +
+                                    (System.nanoTime() - start) / 1000000 + " ms");
                 return true;
             } catch (Exception e) {
                 Logger.printMessage("Could not load auto-saved scoreboard JSON file " + f.getPath() + " : " +
@@ -129,6 +153,31 @@ public class AutoSaveJSONState implements Runnable {
         return false;
     }
 
+    // Use the binary checkpoint if it is at least as recent as the newest JSON autosave.
+    private static boolean loadCheckpoint(ScoreBoard scoreBoard, File dir) {
+        File f = getCheckpointFile(dir);
+        File newest = getFile(0, dir);
+        if (!f.exists() || (newest.exists() && f.lastModified() < newest.lastModified())) { return false; }
+        try {
+            long start = System.nanoTime();
+            // decode everything before applying anything, so a damaged file leaves no traces
+            List<JSONSet> sets = BinaryStateCheckpoint.read(f, String.valueOf(Version.get()));
+            scoreBoard.runInBatch(new Runnable() {
+                @Override
+                public void run() {
+                    ScoreBoardJSONSetter.set(scoreBoard, sets, Source.AUTOSAVE);
+                }
+            });
+            Logger.printMessage("Loaded auto-saved scoreboard from " + f.getPath() + " in " +
+                                (System.nanoTime() - start) / 1000000 + " ms");
+            return true;
+        } catch (Exception e) {
+            Logger.printMessage("Could not load binary checkpoint " + f.getPath() + ", using JSON autosave : " +
+                                e.getMessage());
+            return false;
+        }
+    }
+
     public static void loadFile(ScoreBoard scoreBoard, File f, Source source) throws Exception {
         Map<String, Object> map = JSON.std.mapFrom(f);
         @SuppressWarnings("unchecked")
@@ -149,4 +198,8 @@ public class AutoSaveJSONState implements Runnable {
                                                           .name("crg_json_autosave_write_duration_seconds")
                                                           .help("Time spent writing JSON autosaves to disk")
                                                           .register();
+    private static final Histogram checkpointDuration = Histogram.build()
+                                                            .name("crg_json_autosave_checkpoint_duration_seconds")
+                                                            .help("Time spent writing binary state checkpoints to disk")
+                                                            .register();
 }
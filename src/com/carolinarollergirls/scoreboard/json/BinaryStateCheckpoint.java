@@ -0,0 +1,231 @@
+package com.carolinarollergirls.scoreboard.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.carolinarollergirls.scoreboard.json.ScoreBoardJSONSetter.JSONSet;
+
+/**
+ * Compact binary copy of the full state, written next to the JSON autosave so
+ * that startup does not have to parse JSON. The JSON files stay the format
+ * used for everything else, the checkpoint is only ever read back by the
+ * same version that wrote it.
+ *
+ * Layout, with all numbers as unsigned varints unless noted:
+ * magic "CRGB", format version (1 byte), release version (string),
+ * string table (count, then length prefixed UTF-8 strings),
+ * records (count, then for each: length, parent path, element name, type byte, value),
+ * CRC32 of everything before it (4 bytes).
+ * Keys are split into parent path and last element, both stored as indices
+ * into the string table, so the parent paths shared by many keys and
+ * repeated values like ids are only stored once.
+ */
+public class BinaryStateCheckpoint {
+    private BinaryStateCheckpoint() {}
+
+    public static void write(Map<String, Object> state, String release, File file) throws IOException {
+        Map<String, Integer> strings = new HashMap<>();
+        List<String> table = new ArrayList<>();
+        ByteArrayOutputStream records = new ByteArrayOutputStream(state.size() * 8);
+        ByteArrayOutputStream record = new ByteArrayOutputStream(32);
+        for (Map.Entry<String, Object> e : state.entrySet()) {
+            String key = e.getKey();
+            Object value = e.getValue();
+            int split = lastElementStart(key);
+            record.reset();
+            writeVarint(record, intern(split == 0 ? "" : key.substring(0, split - 1), strings, table));
+            writeVarint(record, intern(key.substring(split), strings, table));
+            if (value == null) {
+                record.write(TYPE_NULL);
+            } else if (value instanceof Boolean) {
+                record.write((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+            } else if (value instanceof Integer) {
+                record.write(TYPE_INT);
+                writeVarint(record, zigZag((Integer) value));
+            } else if (value instanceof Long) {
+                record.write(TYPE_LONG);
+                writeVarint(record, zigZag((Long) value));
+            } else {
+                record.write(TYPE_STRING);
+                writeVarint(record, intern(value.toString(), strings, table));
+            }
+            writeVarint(records, record.size());
+            record.writeTo(records);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(records.size() + table.size() * 16 + 64);
+        out.write(MAGIC);
+        out.write(FORMAT_VERSION);
+        writeString(out, release);
+        writeVarint(out, table.size());
+        for (String s : table) { writeString(out, s); }
+        writeVarint(out, state.size());
+        records.writeTo(out);
+        CRC32 crc = new CRC32();
+        crc.update(out.toByteArray(), 0, out.size());
+        long checksum = crc.getValue();
+        for (int shift = 24; shift >= 0; shift -= 8) { out.write((int) (checksum >>> shift)); }
+
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            try (OutputStream os = new FileOutputStream(tmp)) { out.writeTo(os); }
+            // renameTo() can't replace an existing file on Windows.
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } finally { tmp.delete(); }
+    }
+
+    // Decode a checkpoint straight into sets for the ScoreBoardJSONSetter, in the
+    // (sorted) order they were written. Throws if the file is damaged or was
+    // written by a different release.
+    public static List<JSONSet> read(File file, String release) throws IOException {
+        // Not mapped, as a mapping keeps the file locked on Windows until it is
+        // garbage collected and the next checkpoint couldn't replace it.
+        return read(ByteBuffer.wrap(Files.readAllBytes(file.toPath())), release);
+    }
+
+    private static List<JSONSet> read(ByteBuffer buffer, String release) throws IOException {
+        try {
+            int end = buffer.limit() - 4;
+            if (end < MAGIC.length + 1) { throw new IOException("Checkpoint truncated"); }
+            CRC32 crc = new CRC32();
+            ByteBuffer body = buffer.duplicate();
+            body.limit(end);
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(end)) { throw new IOException("Checkpoint checksum mismatch"); }
+            buffer.limit(end);
+
+            for (byte b : MAGIC) {
+                if (buffer.get() != b) { throw new IOException("Not a checkpoint file"); }
+            }
+            if (buffer.get() != FORMAT_VERSION) { throw new IOException("Unknown checkpoint format"); }
+            String fileRelease = readString(buffer);
+            if (!fileRelease.equals(release)) {
+                throw new IOException("Checkpoint is from version " + fileRelease + ", not " + release);
+            }
+            String[] table = new String[readVarint(buffer)];
+            for (int i = 0; i < table.length; i++) { table[i] = readString(buffer); }
+
+            int count = readVarint(buffer);
+            List<JSONSet> sets = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int length = readVarint(buffer);
+                int next = buffer.position() + length;
+                String parent = table[readVarint(buffer)];
+                String name = table[readVarint(buffer)];
+                String key = parent.isEmpty() ? name : parent + "." + name;
+                String value;
+                byte type = buffer.get();
+                switch (type) {
+                case TYPE_NULL: value = null; break;
+                case TYPE_FALSE: value = "false"; break;
+                case TYPE_TRUE: value = "true"; break;
+                case TYPE_INT: value = String.valueOf((int) unZigZag(readVarlong(buffer))); break;
+                case TYPE_LONG: value = String.valueOf(unZigZag(readVarlong(buffer))); break;
+                case TYPE_STRING: value = table[readVarint(buffer)]; break;
+                default: throw new IOException("Unknown value type " + type + " for " + key);
+                }
+                buffer.position(next);
+                sets.add(new JSONSet(key, value, null));
+            }
+            return sets;
+        } catch (RuntimeException e) {
+            // out of bounds reads and the like
+            throw new IOException("Damaged checkpoint: " + e, e);
+        }
+    }
+
+    // Start of the last path element, ignoring dots inside of ids.
+    private static int lastElementStart(String key) {
+        int depth = 0;
+        for (int i = key.length() - 1; i >= 0; i--) {
+            char c = key.charAt(i);
+            if (c == ')') {
+                depth++;
+            } else if (c == '(' && depth > 0) {
+                depth--;
+            } else if (c == '.' && depth == 0) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static int intern(String s, Map<String, Integer> strings, List<String> table) {
+        Integer index = strings.get(s);
+        if (index == null) {
+            index = table.size();
+            strings.put(s, index);
+            table.add(s);
+        }
+        return index;
+    }
+
+    static long zigZag(long v) { return (v << 1) ^ (v >> 63); }
+    private static long unZigZag(long v) { return (v >>> 1) ^ -(v & 1); }
+
+    static void writeVarint(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    private static long readVarlong(ByteBuffer in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) { return v; }
+        }
+        throw new IOException("Malformed varint");
+    }
+    private static int readVarint(ByteBuffer in) throws IOException {
+        long v = readVarlong(in);
+        if (v < 0 || v > Integer.MAX_VALUE) { throw new IOException("Varint out of range"); }
+        return (int) v;
+    }
+
+    static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        int length = readVarint(in);
+        String s;
+        if (in.hasArray()) {
+            s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            in.duplicate().get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        in.position(in.position() + length);
+        return s;
+    }
+
+    private static final byte[] MAGIC = {'C', 'R', 'G', 'B'};
+    private static final byte FORMAT_VERSION = 1;
+
+    static final byte TYPE_NULL = 0;
+    static final byte TYPE_FALSE = 1;
+    static final byte TYPE_TRUE = 2;
+    static final byte TYPE_INT = 3;
+    static final byte TYPE_LONG = 4;
+    static final byte TYPE_STRING = 5;
+}
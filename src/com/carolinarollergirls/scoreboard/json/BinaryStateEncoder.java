@@ -0,0 +1,69 @@
+package com.carolinarollergirls.scoreboard.json;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes state updates for WebSocket clients that asked for the binary
+ * protocol. Each key is sent in full only the first time it is used on the
+ * connection, after that it is referenced by its index in the dictionary.
+ *
+ * Frame layout, with all numbers as unsigned varints unless noted:
+ * frame type (1 byte, FRAME_STATE),
+ * new dictionary entries (count, id of the first one, then length prefixed
+ * UTF-8 keys, which get consecutive ids),
+ * values (count, then for each: key id, type byte, value).
+ * Value types and encodings are the same as in BinaryStateCheckpoint, except
+ * that strings are written inline. A null value means the key was deleted.
+ * Updates caused by a traced command are FRAME_TRACED_STATE instead, with
+ * the id of the UpdateTrace appended.
+ */
+public class BinaryStateEncoder {
+    public byte[] encode(Map<String, Object> updates) { return encode(updates, null); }
+
+    public byte[] encode(Map<String, Object> updates, Long traceId) {
+        ByteArrayOutputStream newKeys = new ByteArrayOutputStream();
+        ByteArrayOutputStream values = new ByteArrayOutputStream(updates.size() * 8);
+        int firstNewId = ids.size();
+        for (Map.Entry<String, Object> e : updates.entrySet()) {
+            Integer id = ids.get(e.getKey());
+            if (id == null) {
+                id = ids.size();
+                ids.put(e.getKey(), id);
+                BinaryStateCheckpoint.writeString(newKeys, e.getKey());
+            }
+            BinaryStateCheckpoint.writeVarint(values, id);
+            Object value = e.getValue();
+            if (value == null) {
+                values.write(BinaryStateCheckpoint.TYPE_NULL);
+            } else if (value instanceof Boolean) {
+                values.write((Boolean) value ? BinaryStateCheckpoint.TYPE_TRUE : BinaryStateCheckpoint.TYPE_FALSE);
+            } else if (value instanceof Integer) {
+                values.write(BinaryStateCheckpoint.TYPE_INT);
+                BinaryStateCheckpoint.writeVarint(values, BinaryStateCheckpoint.zigZag((Integer) value));
+            } else if (value instanceof Long) {
+                values.write(BinaryStateCheckpoint.TYPE_LONG);
+                BinaryStateCheckpoint.writeVarint(values, BinaryStateCheckpoint.zigZag((Long) value));
+            } else {
+                values.write(BinaryStateCheckpoint.TYPE_STRING);
+                BinaryStateCheckpoint.writeString(values, value.toString());
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(newKeys.size() + values.size() + 16);
+        out.write(traceId == null ? FRAME_STATE : FRAME_TRACED_STATE);
+        BinaryStateCheckpoint.writeVarint(out, ids.size() - firstNewId);
+        BinaryStateCheckpoint.writeVarint(out, firstNewId);
+        out.write(newKeys.toByteArray(), 0, newKeys.size());
+        BinaryStateCheckpoint.writeVarint(out, updates.size());
+        out.write(values.toByteArray(), 0, values.size());
+        if (traceId != null) { BinaryStateCheckpoint.writeVarint(out, traceId); }
+        return out.toByteArray();
+    }
+
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    public static final byte FRAME_STATE = 1;
+    public static final byte FRAME_TRACED_STATE = 2;
+}
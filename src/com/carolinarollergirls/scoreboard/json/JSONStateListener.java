@@ -8,4 +8,9 @@ public interface JSONStateListener {
     // Keys with a value of null are considered deleted, and will not be present
     // in state.
     public void sendUpdates(Map<String, Object> state, Set<String> changed);
+
+    // The same for updates caused by a traced command, see UpdateTrace.
+    public default void sendUpdates(Map<String, Object> state, Set<String> changed, UpdateTrace trace) {
+        sendUpdates(state, changed);
+    }
 }
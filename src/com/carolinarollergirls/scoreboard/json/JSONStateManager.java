@@ -28,15 +28,18 @@ public class JSONStateManager {
         executor.execute(new Runnable() {
             @Override
             public void run() {
-                source.sendUpdates(localState, localState.keySet());
-                pending.decrementAndGet();
+                try {
+                    source.sendUpdates(localState, localState.keySet());
+                } finally { pending.decrementAndGet(); }
             }
         });
     }
 
     public synchronized void unregister(JSONStateListener source) {
-        sources.get(source).shutdownNow();
-        sources.remove(source);
+        ExecutorService executor = sources.remove(source);
+        if (executor == null) { return; }
+        // Updates that were still queued will never be sent.
+        pending.addAndGet(-executor.shutdownNow().size());
     }
 
     public void updateState(String key, Object value) {
@@ -83,6 +86,9 @@ public class JSONStateManager {
 
         state = Collections.unmodifiableSortedMap(newState);
         if (!changed.isEmpty()) {
+            version++;
+            final UpdateTrace trace = UpdateTrace.current();
+            if (trace != null) { trace.stateUpdated(); }
             final Map<String, Object> localState = state;
             final Set<String> immutableChanged = Collections.unmodifiableSet(changed);
 
@@ -94,8 +100,9 @@ public class JSONStateManager {
                 sources.get(source).execute(new Runnable() {
                     @Override
                     public void run() {
-                        localSource.sendUpdates(localState, immutableChanged);
-                        pending.decrementAndGet();
+                        try {
+                            localSource.sendUpdates(localState, immutableChanged, trace);
+                        } finally { pending.decrementAndGet(); }
                     }
                 });
             }
@@ -106,8 +113,25 @@ public class JSONStateManager {
 
     public synchronized Map<String, Object> getState() { return state; }
 
-    // For unittests.
-    protected void waitForSent() {
+    // The current state together with a number that changes whenever the state does.
+    public synchronized VersionedState getVersionedState() { return new VersionedState(state, version); }
+
+    public static class VersionedState {
+        private VersionedState(SortedMap<String, Object> state, long version) {
+            this.state = state;
+            this.version = version;
+        }
+
+        public SortedMap<String, Object> getState() { return state; }
+        public long getVersion() { return version; }
+
+        private final SortedMap<String, Object> state;
+        private final long version;
+    }
+
+    // Wait until all listeners have been sent all updates so far.
+    // Used by unittests.
+    public void waitForSent() {
         while (pending.get() > 0) {
             try {
                 Thread.sleep(1);
@@ -117,6 +141,7 @@ public class JSONStateManager {
 
     private Map<JSONStateListener, ExecutorService> sources = new HashMap<>();
     private SortedMap<String, Object> state = new TreeMap<>();
+    private long version = 0;
     private final AtomicInteger pending = new AtomicInteger();
 
     private static final Histogram updateStateDuration =
@@ -2,11 +2,21 @@ package com.carolinarollergirls.scoreboard.json;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import com.fasterxml.jackson.jr.ob.JSON;
 
@@ -14,40 +24,153 @@ import com.carolinarollergirls.scoreboard.core.interfaces.Game;
 import com.carolinarollergirls.scoreboard.utils.BasePath;
 import com.carolinarollergirls.scoreboard.utils.Logger;
 
+import io.prometheus.client.Counter;
 import io.prometheus.client.Histogram;
 
+/**
+ * Writes the JSON of a single game to html/game-data/json.
+ *
+ * Writes are done on a shared background thread. Requests arriving while a
+ * write is pending are coalesced into that write, which is delayed until no new
+ * request came in for WRITE_DELAY_MS (but at most MAX_WRITE_DELAY_MS after the
+ * first request). The state written is the immutable snapshot last received
+ * from the JSONStateManager, so no copy of it is kept here.
+ */
 public class JSONStateSnapshotter implements JSONStateListener {
 
     public JSONStateSnapshotter(JSONStateManager jsm, Game g) {
         this.directory = BasePath.get();
+        this.jsm = jsm;
         game = g;
         pathPrefix = "ScoreBoard.Game(" + game.getId() + ")";
         jsm.register(this);
     }
 
     @Override
-    public synchronized void sendUpdates(Map<String, Object> newState, Set<String> changed) {
+    public void sendUpdates(Map<String, Object> newState, Set<String> changed) {
+        boolean hadUpdate = false;
         boolean hadNonClockUpdate = false;
         for (String key : changed) {
             if ((key.startsWith(pathPrefix) || key.startsWith("ScoreBoard.Version")) && !key.endsWith("Secret")) {
+                hadUpdate = true;
                 if (!key.startsWith(pathPrefix + ".Clock") && !key.endsWith(".JsonExists") &&
                     !key.endsWith(".StatsbookExists")) {
                     hadNonClockUpdate = true;
+                    break;
                 }
-                state.put(key, newState.get(key));
             }
         }
-        if (writeOnNextUpdate ||
-            (hadNonClockUpdate && game.isOfficialScore() &&
-             ("Never".equals(game.get(Game.LAST_FILE_UPDATE)) || "Pre Game".equals(game.get(Game.LAST_FILE_UPDATE))))) {
-            writeOnNextUpdate = false;
-            writeFile();
+        // Evaluate this before taking our own lock, as it needs the core lock.
+        boolean writePreGame = hadNonClockUpdate && game.isOfficialScore() &&
+                               ("Never".equals(game.get(Game.LAST_FILE_UPDATE)) ||
+                                "Pre Game".equals(game.get(Game.LAST_FILE_UPDATE)));
+        synchronized (this) {
+            if (newState instanceof SortedMap) {
+                state = (SortedMap<String, Object>) newState;
+            } else {
+                state = new TreeMap<>(newState);
+            }
+            if (hadUpdate) { dirty = true; }
+            if (writeOnNextUpdate || writePreGame) {
+                writeOnNextUpdate = false;
+                scheduleWrite();
+            }
         }
     }
 
-    public void writeOnNextUpdate() { writeOnNextUpdate = true; }
+    public synchronized void writeOnNextUpdate() { writeOnNextUpdate = true; }
 
+    // Write the current state right away, replacing any pending delayed write.
     public void writeFile() {
+        synchronized (this) {
+            if (pendingWrite != null) {
+                pendingWrite.cancel(false);
+                pendingWrite = null;
+            }
+        }
+        doWrite(true);
+    }
+
+    // Write the state the JSONStateManager has right now, rather than the last
+    // one that reached us, to the given file and then to html/game-data/json.
+    // Must be called with the core lock held, so no change can be made between
+    // taking the state and the caller acting on the written file. Throws if the
+    // given file could not be written and synced to disk.
+    public void writeCurrentState(File file) throws IOException {
+        SortedMap<String, Object> gameState = extractGameState(jsm.getVersionedState().getState());
+        file.getParentFile().mkdirs();
+        File tmp = writeTempFile(gameState, file.getName(), file.getParentFile(), true);
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } finally { tmp.delete(); }
+        synchronized (this) {
+            if (pendingWrite != null) {
+                pendingWrite.cancel(false);
+                pendingWrite = null;
+            }
+            dirty = false;
+        }
+        writeFile(gameState);
+    }
+
+    // Stop following the state, e.g. because the game has been deleted.
+    public void close() {
+        jsm.unregister(this);
+        synchronized (this) {
+            if (pendingWrite != null) {
+                pendingWrite.cancel(false);
+                pendingWrite = null;
+            }
+            dirty = false;
+        }
+    }
+
+    private void scheduleWrite() {
+        long now = System.currentTimeMillis();
+        if (pendingWrite != null) {
+            coalescedWrites.inc();
+            // Postpone the pending write, unless it has been waiting for too long already.
+            if (now - firstRequest + WRITE_DELAY_MS > MAX_WRITE_DELAY_MS || !pendingWrite.cancel(false)) { return; }
+        } else {
+            firstRequest = now;
+        }
+        try {
+            pendingWrite = writer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    doWrite(false);
+                }
+            }, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down - flushAll() has already written everything up to here
+            pendingWrite = null;
+        }
+    }
+
+    private void doWrite(boolean force) {
+        SortedMap<String, Object> toWrite;
+        synchronized (this) {
+            pendingWrite = null;
+            if (!dirty && !force) { return; }
+            dirty = false;
+            toWrite = extractGameState(state);
+        }
+        writeFile(toWrite);
+    }
+
+    private SortedMap<String, Object> extractGameState(SortedMap<String, Object> fullState) {
+        // Use a TreeMap so output is sorted.
+        SortedMap<String, Object> result = new TreeMap<>();
+        // '/' and ')' are the characters following '.' and '(', so these are exactly the keys below
+        // the respective prefix.
+        result.putAll(fullState.subMap(pathPrefix + ".", pathPrefix + "/"));
+        result.putAll(fullState.subMap("ScoreBoard.Version(", "ScoreBoard.Version)"));
+        result.keySet().removeIf(k -> k.endsWith("Secret"));
+        return result;
+    }
+
+    private void writeFile(Map<String, Object> gameState) {
         Histogram.Timer timer = updateStateDuration.startTimer();
 
         File file = new File(new File(directory, "html/game-data/json"), game.getFilename() + ".json");
@@ -55,28 +178,12 @@ public class JSONStateSnapshotter implements JSONStateListener {
         file.getParentFile().mkdirs();
 
         File tmp = null;
-        OutputStreamWriter out = null;
         try {
-            // Put inside a "state" entry to match the WS.
-            String json = JSON.std.with(JSON.Feature.PRETTY_PRINT_OUTPUT)
-                              .composeString()
-                              .startObject()
-                              .putObject("state", state)
-                              .end()
-                              .finish();
-            tmp = File.createTempFile(file.getName(), ".tmp", directory);
-            out = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8);
-            out.write(json);
-            out.close();
+            tmp = writeTempFile(gameState, file.getName(), directory, false);
             prev.delete();
             file.renameTo(prev);
             if (tmp.renameTo(file)) { prev.delete(); }
         } catch (Exception e) { Logger.printMessage("Error writing JSON snapshot: " + e.getMessage()); } finally {
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (Exception e) {}
-            }
             if (tmp != null) {
                 try {
                     tmp.delete();
@@ -86,15 +193,59 @@ public class JSONStateSnapshotter implements JSONStateListener {
         timer.observeDuration();
     }
 
+    private static File writeTempFile(Map<String, Object> gameState, String name, File dir, boolean sync)
+        throws IOException {
+        // Put inside a "state" entry to match the WS.
+        String json = JSON.std.with(JSON.Feature.PRETTY_PRINT_OUTPUT)
+                          .composeString()
+                          .startObject()
+                          .putObject("state", gameState)
+                          .end()
+                          .finish();
+        File tmp = File.createTempFile(name, ".tmp", dir);
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             Writer out = new OutputStreamWriter(fos, StandardCharsets.UTF_8)) {
+            out.write(json);
+            out.flush();
+            if (sync) { fos.getFD().sync(); }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        return tmp;
+    }
+
+    // Write out any delayed snapshots. Used on shutdown.
+    public static void flushAll() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(MAX_WRITE_DELAY_MS * 2, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {}
+    }
+
     private File directory;
+    private JSONStateManager jsm;
     private Game game;
     private String pathPrefix;
     private boolean writeOnNextUpdate = false;
-    // Use a TreeMap so output is sorted.
-    private Map<String, Object> state = new TreeMap<>();
+    private boolean dirty = false;
+    private long firstRequest;
+    private ScheduledFuture<?> pendingWrite;
+    // The immutable state last sent by the JSONStateManager.
+    private SortedMap<String, Object> state = new TreeMap<>();
+
+    private static final long WRITE_DELAY_MS = 1000;
+    private static final long MAX_WRITE_DELAY_MS = 5000;
+
+    private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor();
 
     private static final Histogram updateStateDuration = Histogram.build()
                                                              .name("crg_json_state_disk_snapshot_duration_seconds")
                                                              .help("Time spent writing JSON state snapshots to disk")
                                                              .register();
+    private static final Counter coalescedWrites =
+        Counter.build()
+            .name("crg_json_state_disk_snapshot_coalesced")
+            .help("Number of JSON state snapshot write requests merged into an already pending write")
+            .register();
 }
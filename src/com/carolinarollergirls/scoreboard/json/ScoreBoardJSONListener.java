@@ -2,6 +2,9 @@ package com.carolinarollergirls.scoreboard.json;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
 
 import com.carolinarollergirls.scoreboard.core.interfaces.Media;
 import com.carolinarollergirls.scoreboard.core.interfaces.ScoreBoard;
@@ -117,15 +120,40 @@ public class ScoreBoardJSONListener implements ScoreBoardListener {
         updateState();
     }
 
+    // Paths are needed for every event, but only change when the id of the
+    // provider or one of its ancestors does. So they are cached, and a cached
+    // path is used as long as the provider id and the parent's path (which is
+    // the same String object while it's unchanged) are the ones it was built from.
     String getPath(ScoreBoardEventProvider p) {
+        String parentPath = p.getParent() == null ? null : getPath(p.getParent());
+        String id = p.getProviderId();
+        CachedPath cached = paths.get(p);
+        if (cached != null && cached.parentPath == parentPath && Objects.equals(cached.id, id)) { return cached.path; }
+
         String path = "";
-        if (p.getParent() != null) { path = getPath(p.getParent()) + "."; }
+        if (parentPath != null) { path = parentPath + "."; }
         path = path + p.getProviderName();
-        if (!"".equals(p.getProviderId()) && p.getProviderId() != null) { path = path + "(" + p.getProviderId() + ")"; }
+        if (!"".equals(id) && id != null) { path = path + "(" + id + ")"; }
+        paths.put(p, new CachedPath(parentPath, id, path));
         return path;
     }
 
+    private static class CachedPath {
+        private CachedPath(String parentPath, String id, String path) {
+            this.parentPath = parentPath;
+            this.id = id;
+            this.path = path;
+        }
+
+        private final String parentPath;
+        private final String id;
+        private final String path;
+    }
+
     private JSONStateManager jsm;
     private List<WSUpdate> updates = new LinkedList<>();
     private long batch = 0;
+    // Providers don't override equals, so this is by identity. Deleted
+    // providers are dropped once they are garbage collected.
+    private Map<ScoreBoardEventProvider, CachedPath> paths = new WeakHashMap<>();
 }
@@ -1,13 +1,13 @@
 package com.carolinarollergirls.scoreboard.json;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import com.carolinarollergirls.scoreboard.core.interfaces.Clients;
 import com.carolinarollergirls.scoreboard.core.interfaces.CurrentGame;
@@ -24,6 +24,8 @@ import com.carolinarollergirls.scoreboard.event.Value;
 import com.carolinarollergirls.scoreboard.utils.Logger;
 import com.carolinarollergirls.scoreboard.utils.ValWithId;
 
+import io.prometheus.client.Histogram;
+
 /**
  * Bulk set ScoreBoard atttributes with JSON paths.
  */
@@ -148,9 +150,77 @@ public class ScoreBoardJSONSetter {
     }
 
     // Make a list of sets to a scoreboard, with JSON paths to fields.
+    // Keys are applied in sorted order inside a single batch, so that elements
+    // resolved for one key can be reused for the following keys.
     public static void set(ScoreBoard sb, Map<String, Object> state, Source source) {
-        List<JSONSet> jsl = new ArrayList<>();
-        for (String key : state.keySet()) {
+        Histogram.Timer timer = bulkSetDuration.startTimer();
+        final List<JSONSet> jsl = toSortedSets(state);
+        sb.runInBatch(new Runnable() {
+            @Override
+            public void run() {
+                ScoreBoardJSONSetter.set(sb, jsl, source);
+            }
+        });
+        timer.observeDuration();
+        bulkSetKeys.observe(jsl.size());
+    }
+
+    // Prepare an imported state for setStaged(). This does everything that
+    // doesn't need the scoreboard, so it can be done without holding the core lock.
+    // The sets are split into one group for everything outside of games, one
+    // group per game and finally one group for CurrentGame, which references games.
+    public static List<List<JSONSet>> stage(Map<String, Object> state) {
+        updateToCurrentVersion(state);
+        List<List<JSONSet>> groups = new ArrayList<>();
+        List<JSONSet> other = new ArrayList<>();
+        List<JSONSet> currentGame = new ArrayList<>();
+        List<JSONSet> game = null;
+        String gamePrefix = null;
+        groups.add(other);
+        for (JSONSet s : toSortedSets(state)) {
+            if (s.path.startsWith(CURRENT_GAME_PREFIX)) {
+                currentGame.add(s);
+            } else if (gamePrefix != null && s.path.startsWith(gamePrefix)) {
+                game.add(s);
+            } else if (s.path.startsWith(GAME_PREFIX) && s.path.indexOf(')') > 0) {
+                gamePrefix = s.path.substring(0, s.path.indexOf(')') + 1);
+                game = new ArrayList<>();
+                game.add(s);
+                groups.add(game);
+            } else {
+                other.add(s);
+            }
+        }
+        if (!currentGame.isEmpty()) { groups.add(currentGame); }
+        return groups;
+    }
+
+    // Apply groups created by stage(), each in its own batch. This way the core
+    // lock is only held for one game at a time and other changes (e.g. clocks of
+    // a running game) can go through between them.
+    public static void setStaged(ScoreBoard sb, List<List<JSONSet>> groups, Source source) {
+        Histogram.Timer timer = bulkSetDuration.startTimer();
+        int keys = 0;
+        for (final List<JSONSet> group : groups) {
+            Histogram.Timer batchTimer = stagedBatchDuration.startTimer();
+            sb.runInBatch(new Runnable() {
+                @Override
+                public void run() {
+                    ScoreBoardJSONSetter.set(sb, group, source);
+                }
+            });
+            batchTimer.observeDuration();
+            keys += group.size();
+        }
+        timer.observeDuration();
+        bulkSetKeys.observe(keys);
+    }
+
+    private static List<JSONSet> toSortedSets(Map<String, Object> state) {
+        List<String> keys = new ArrayList<>(state.keySet());
+        Collections.sort(keys);
+        List<JSONSet> jsl = new ArrayList<>(keys.size());
+        for (String key : keys) {
             Object value = state.get(key);
             String v;
             if (value == null) {
@@ -160,38 +230,73 @@ public class ScoreBoardJSONSetter {
             }
             jsl.add(new JSONSet(key, v, null));
         }
-        ScoreBoardJSONSetter.set(sb, jsl, source);
+        return jsl;
     }
 
-    public static void set(ScoreBoard sb, List<JSONSet> jsl, Source source) {
+    // Returns the paths of the sets that could not be applied, because the path
+    // is invalid, an element couldn't be created or an exception was thrown.
+    // Sets that the element itself decides to ignore (e.g. a write protected
+    // value) are not detected.
+    public static List<String> set(ScoreBoard sb, List<JSONSet> jsl, Source source) {
+        List<String> failed = new ArrayList<>();
         List<PropertySet> postponedSets = new ArrayList<>();
+        // the path each postponed set came from
+        List<String> postponedPaths = new ArrayList<>();
+        PathCursor cursor = new PathCursor(sb, ROOT_NAME.length());
         for (JSONSet s : jsl) {
-            Matcher m = pathElementPattern.matcher(s.path);
-            if (m.matches() && m.group("name").equals("ScoreBoard") && m.group("id") == null &&
-                m.group("remainder") != null) {
-                set(sb, m.group("remainder"), s.value, source, s.flag, postponedSets);
+            if (s.path.startsWith(ROOT_NAME + ".") && s.path.length() > ROOT_NAME.length() + 1) {
+                if (!set(cursor, s.path, s.value, source, s.flag, postponedSets)) { failed.add(s.path); }
+                while (postponedPaths.size() < postponedSets.size()) { postponedPaths.add(s.path); }
             } else {
                 Logger.printMessage("Illegal path: " + s.path);
+                failed.add(s.path);
             }
         }
-        for (PropertySet vs : postponedSets) { vs.process(); }
+        for (int i = 0; i < postponedSets.size(); i++) {
+            try {
+                postponedSets.get(i).process();
+            } catch (Exception e) {
+                Logger.printMessage("Exception handling update for " + postponedPaths.get(i) + ": " + e.toString());
+                Logger.printStackTrace(e);
+                failed.add(postponedPaths.get(i));
+            }
+        }
+        return failed;
     }
 
+    // Returns false if the set could not be applied or postponed.
     @SuppressWarnings({"unchecked", "rawtypes"})
-    private static void set(ScoreBoardEventProvider p, String path, String value, Source source, Flag flag,
-                            List<PropertySet> postponedSets) {
-        Matcher m = pathElementPattern.matcher(path);
-        if (m.matches()) {
-            String name = m.group("name");
-            String elementId = m.group("id");
-            String remainder = m.group("remainder");
-            if (elementId == null) { elementId = ""; }
+    private static boolean set(PathCursor cursor, String path, String value, Source source, Flag flag,
+                               List<PropertySet> postponedSets) {
+        int depth = cursor.resume(path);
+        ScoreBoardEventProvider p = cursor.providers[depth];
+        int pos = cursor.ends[depth];
+        while (true) {
+            // parse the path element starting after pos: name(id).remainder
+            int nameStart = pos + 1;
+            int nameEnd = nameStart;
+            while (nameEnd < path.length() && isWordChar(path.charAt(nameEnd))) { nameEnd++; }
+            int idStart = -1;
+            int elementEnd = nameEnd;
+            if (elementEnd < path.length() && path.charAt(elementEnd) == '(') {
+                idStart = elementEnd + 1;
+                elementEnd = path.indexOf(')', idStart);
+                if (elementEnd >= 0) { elementEnd++; }
+            }
+            if (nameEnd == nameStart || elementEnd < 0 ||
+                (elementEnd < path.length() && path.charAt(elementEnd) != '.')) {
+                Logger.printMessage("Illegal path element: " + path.substring(nameStart));
+                return false;
+            }
+            String name = path.substring(nameStart, nameEnd);
+            String elementId = idStart < 0 ? "" : path.substring(idStart, elementEnd - 1);
+            boolean hasRemainder = elementEnd < path.length();
             String readable = p.getProviderName() + "(" + p.getProviderId() + ")." + name + "(" + elementId + ")";
             try {
                 Property prop = p.getProperty(name);
                 if (prop == null) {
                     Logger.printMessage("Unknown property " + readable);
-                    return;
+                    return false;
                 }
 
                 if (prop == ScoreBoardEventProvider.ID) {
@@ -201,8 +306,10 @@ public class ScoreBoardJSONSetter {
                     // elements not yet created when restoring from autosave
                     postponedSets.add(new ValueSet(p, (Value) prop, value, source, flag));
                 } else if (prop instanceof Command) {
+                    // commands may restructure the tree, so don't trust resolved elements afterwards
+                    cursor.reset();
                     if (Boolean.parseBoolean(value)) { p.execute((Command) prop, source); }
-                } else if (remainder != null) {
+                } else if (hasRemainder) {
                     @SuppressWarnings("unchecked")
                     ScoreBoardEventProvider o =
                         p.getOrCreate((Child<? extends ScoreBoardEventProvider>) prop, elementId, source);
@@ -211,18 +318,22 @@ public class ScoreBoardJSONSetter {
                             // Expulsion data can only be set after the corresponding penalty has been added
                             if (prop == Game.EXPULSION) {
                                 postponedSets.add(new ExpulsionSet(p, (Child<Expulsion>) prop, elementId, source, flag,
-                                                                   remainder, value));
-                                return;
+                                                                   path.substring(elementEnd + 1), value));
+                                return true;
                             }
                             // filter out elements that we intentionally drop
-                            if (p.getProviderClass() == CurrentGame.class) { return; }
-                            if (prop == Clients.CLIENT) { return; }
+                            if (p.getProviderClass() == CurrentGame.class) { return true; }
+                            if (prop == Clients.CLIENT) { return true; }
                         }
                         Logger.printMessage("Could not get or create property " + readable);
-                        return;
+                        return false;
                     }
-                    set(o, remainder, value, source, flag, postponedSets);
+                    cursor.push(elementEnd, o);
+                    p = o;
+                    pos = elementEnd;
+                    continue;
                 } else if (value == null) {
+                    cursor.reset();
                     p.remove((Child<?>) prop, elementId, source);
                 } else if (prop.getType() == ValWithId.class) {
                     Child aprop = (Child) prop;
@@ -233,12 +344,55 @@ public class ScoreBoardJSONSetter {
             } catch (Exception e) {
                 Logger.printMessage("Exception handling update for " + readable + " - " + value + ": " + e.toString());
                 Logger.printStackTrace(e);
+                return false;
             }
-        } else {
-            Logger.printMessage("Illegal path element: " + path);
+            return true;
         }
     }
 
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * The chain of elements resolved for the last path. As keys are processed in
+     * sorted order, consecutive paths usually share most of their elements, so
+     * these don't have to be looked up again.
+     */
+    private static class PathCursor {
+        private PathCursor(ScoreBoardEventProvider root, int rootEnd) {
+            providers[0] = root;
+            ends[0] = rootEnd;
+        }
+
+        // Returns the depth of the deepest element shared with the previous path.
+        private int resume(String newPath) {
+            while (depth > 0 && !(newPath.length() > ends[depth] && newPath.charAt(ends[depth]) == '.' &&
+                                  newPath.regionMatches(0, path, 0, ends[depth]))) {
+                depth--;
+            }
+            path = newPath;
+            return depth;
+        }
+
+        private void push(int end, ScoreBoardEventProvider provider) {
+            if (++depth == ends.length) {
+                ends = Arrays.copyOf(ends, depth * 2);
+                providers = Arrays.copyOf(providers, depth * 2);
+            }
+            ends[depth] = end;
+            providers[depth] = provider;
+        }
+
+        private void reset() { depth = 0; }
+
+        private String path = "";
+        private int depth = 0;
+        // position right after the element at each depth in path
+        private int[] ends = new int[16];
+        private ScoreBoardEventProvider[] providers = new ScoreBoardEventProvider[16];
+    }
+
     public static class JSONSet {
         public JSONSet(String path, String value, Flag flag) {
             this.path = path;
@@ -315,7 +469,7 @@ public class ScoreBoardJSONSetter {
                 return;
             }
             List<PropertySet> postponedSets = new ArrayList<>();
-            set(e, remainder, value, source, flag, postponedSets);
+            set(new PathCursor(e, -1), remainder, value, source, flag, postponedSets);
             for (PropertySet s : postponedSets) { s.process(); }
         }
 
@@ -328,6 +482,22 @@ public class ScoreBoardJSONSetter {
         private String value;
     }
 
-    private static final Pattern pathElementPattern =
-        Pattern.compile("^(?<name>\\w+)(\\((?<id>[^\\)]*)\\))?(\\.(?<remainder>.*))?$");
+    private static final String ROOT_NAME = "ScoreBoard";
+    private static final String GAME_PREFIX = ROOT_NAME + ".Game(";
+    private static final String CURRENT_GAME_PREFIX = ROOT_NAME + ".CurrentGame.";
+
+    private static final Histogram bulkSetDuration = Histogram.build()
+                                                         .name("crg_json_setter_bulk_set_duration_seconds")
+                                                         .help("Time spent applying a full JSON state")
+                                                         .register();
+    private static final Histogram bulkSetKeys = Histogram.build()
+                                                     .name("crg_json_setter_bulk_set_keys")
+                                                     .help("Keys in full JSON states applied")
+                                                     .exponentialBuckets(16, 2, 14)
+                                                     .register();
+    private static final Histogram stagedBatchDuration =
+        Histogram.build()
+            .name("crg_json_setter_staged_batch_duration_seconds")
+            .help("Time the core lock was held for a single group of a staged import")
+            .register();
 }
@@ -0,0 +1,67 @@
+package com.carolinarollergirls.scoreboard.json;
+
+import io.prometheus.client.Histogram;
+
+/**
+ * Follows a command from a client until the state updates it caused have
+ * been sent out. The command is run with the trace as the current one on its
+ * thread. The batch it runs in ends on that same thread, which is where
+ * ScoreBoardJSONListener calls JSONStateManager.updateState, so the updates
+ * pick the trace up there and hand it on to the listeners.
+ *
+ * All times are System.nanoTime().
+ */
+public class UpdateTrace {
+    public UpdateTrace(long id, long received) {
+        this.id = id;
+        this.received = received;
+    }
+
+    public long getId() { return id; }
+    public long getReceived() { return received; }
+    // When the resulting state was updated, 0 if it hasn't been.
+    public long getApplied() { return applied; }
+
+    public void run(Runnable r) {
+        UpdateTrace previous = current.get();
+        current.set(this);
+        started = System.nanoTime();
+        observe("inbound", received, started);
+        try {
+            r.run();
+        } finally {
+            if (previous == null) {
+                current.remove();
+            } else {
+                current.set(previous);
+            }
+        }
+    }
+
+    protected static UpdateTrace current() { return current.get(); }
+
+    protected void stateUpdated() {
+        // Only the first update is caused by the command itself.
+        if (applied != 0) { return; }
+        applied = System.nanoTime();
+        observe("apply", started, applied);
+    }
+
+    public static void observe(String stage, long from, long to) {
+        stageDuration.labels(stage).observe((to - from) / 1e9);
+    }
+
+    private final long id;
+    private final long received;
+    private long started;
+    private volatile long applied = 0;
+
+    private static final ThreadLocal<UpdateTrace> current = new ThreadLocal<>();
+
+    private static final Histogram stageDuration =
+        Histogram.build()
+            .name("crg_update_trace_stage_seconds")
+            .help("Time traced commands spent in each stage from being received until their updates were sent")
+            .labelNames("stage")
+            .register();
+}
@@ -0,0 +1,76 @@
+package com.carolinarollergirls.scoreboard.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a gzipped copy next to each compressible static file below the given
+ * directory, which Jetty serves instead of the original to clients that accept
+ * gzip. Run from the build, prints how many bytes a client loading every
+ * compressible file once saves.
+ */
+public class PrecompressAssets {
+    private PrecompressAssets() {}
+
+    public static void main(String[] args) throws IOException {
+        File root = new File(args.length > 0 ? args[0] : "html");
+        long[] totals = new long[3];
+        walk(root, totals);
+        System.out.println("Precompressed " + totals[0] + " files: " + totals[1] + " bytes uncompressed, " +
+                           totals[2] + " bytes gzipped (" +
+                           (totals[1] == 0 ? 0 : 100 - totals[2] * 100 / totals[1]) + "% saved)");
+    }
+
+    private static void walk(File dir, long[] totals) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) { return; }
+        Arrays.sort(files);
+        for (File f : files) {
+            if (f.isDirectory()) {
+                if (!SKIPPED_DIRECTORIES.contains(f.getName())) { walk(f, totals); }
+            } else if (isCompressible(f)) {
+                File gz = new File(f.getPath() + ".gz");
+                if (!gz.exists() || gz.lastModified() < f.lastModified()) { compress(f, gz); }
+                if (gz.length() < f.length()) {
+                    totals[0]++;
+                    totals[1] += f.length();
+                    totals[2] += gz.length();
+                } else {
+                    // not worth it, Jetty would ignore it anyway
+                    gz.delete();
+                }
+            }
+        }
+    }
+
+    private static boolean isCompressible(File f) {
+        String name = f.getName();
+        int dot = name.lastIndexOf('.');
+        return f.length() >= MIN_SIZE && dot > 0 && EXTENSIONS.contains(name.substring(dot + 1).toLowerCase());
+    }
+
+    private static void compress(File in, File out) throws IOException {
+        try (OutputStream os = new GZIPOutputStream(new FileOutputStream(out)) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            Files.copy(in.toPath(), os);
+        }
+        out.setLastModified(in.lastModified());
+    }
+
+    private static final long MIN_SIZE = 1024;
+    private static final Set<String> EXTENSIONS =
+        new HashSet<>(Arrays.asList("js", "css", "html", "htm", "svg", "json", "txt", "map", "ttf", "otf", "eot"));
+    // user data, which changes at runtime
+    private static final Set<String> SKIPPED_DIRECTORIES = new HashSet<>(Arrays.asList("game-data", "stream"));
+}
@@ -2,8 +2,10 @@ package com.carolinarollergirls.scoreboard.utils;
 
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
-import java.io.FileInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -14,9 +16,26 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.ClientAnchor;
@@ -46,22 +65,157 @@ import com.carolinarollergirls.scoreboard.core.interfaces.Team;
 import com.carolinarollergirls.scoreboard.core.interfaces.TeamJam;
 import com.carolinarollergirls.scoreboard.core.interfaces.Timeout;
 
-public class StatsbookExporter extends Thread {
-    public StatsbookExporter(Game g) {
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+
+/**
+ * Fills a copy of the blank statsbook with the data of a game.
+ *
+ * Exports are queued and run on a small pool of worker threads, the size of
+ * which is set via ScoreBoard.SETTING_EXPORT_WORKERS. As a filled workbook
+ * takes up a lot of heap, an export will only start while another one is
+ * running if the heap has room for it, otherwise it waits for running exports
+ * to finish.
+ *
+ * With ScoreBoard.SETTING_LIVE_STATSBOOK enabled, the workbook of each game is
+ * kept in memory and updated after every jam and penalty change, only writing
+ * the cells that changed. An export then only has to write the workbook to
+ * disk. Only the workbooks of the most recently updated games are kept, and
+ * the one of a finished game is dropped after it has been exported.
+ */
+public class StatsbookExporter implements Runnable {
+    private StatsbookExporter(Game g, boolean writeFile) {
         game = g;
+        this.writeFile = writeFile;
         coreLock = GameImpl.getCoreLock();
-        start();
+        queuedAt = System.nanoTime();
     }
 
+    // Queue an export of the game. Returns null if the queue is full, in which
+    // case the game has already been told that the export failed.
+    public static StatsbookExporter submit(Game g) {
+        StatsbookExporter exporter = new StatsbookExporter(g, true);
+        queueDepth.inc();
+        try {
+            executor.execute(exporter);
+        } catch (RejectedExecutionException e) {
+            queueDepth.dec();
+            rejectedExports.inc();
+            Logger.printMessage("Too many statsbook exports queued, not exporting " + g.getFilename());
+            g.exportDone(false);
+            return null;
+        }
+        return exporter;
+    }
+
+    // Bring the live statsbook of the game up to date (without writing it to
+    // disk) a little while from now. Requests for a game that already has an
+    // update pending are merged into that.
+    public static void requestLiveUpdate(Game g) {
+        synchronized (pendingLiveUpdates) {
+            if (!pendingLiveUpdates.add(g)) { return; }
+        }
+        liveUpdateScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (pendingLiveUpdates) { pendingLiveUpdates.remove(g); }
+                queueDepth.inc();
+                try {
+                    executor.execute(new StatsbookExporter(g, false));
+                } catch (RejectedExecutionException e) {
+                    // The next update or export will catch up.
+                    queueDepth.dec();
+                    rejectedExports.inc();
+                }
+            }
+        }, LIVE_UPDATE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // Drop the live statsbook of the game, e.g. because the game was deleted.
+    // This is called while holding the core lock, so it must not wait for an
+    // update of the workbook that might itself be waiting for the core lock.
+    public static void discardLive(Game g) {
+        LiveStatsbook live;
+        synchronized (liveStatsbooks) { live = liveStatsbooks.remove(g); }
+        discard(live);
+    }
+
+    public static void discardAllLive() {
+        List<LiveStatsbook> books;
+        synchronized (liveStatsbooks) {
+            books = new ArrayList<>(liveStatsbooks.values());
+            liveStatsbooks.clear();
+        }
+        for (LiveStatsbook live : books) { discard(live); }
+    }
+
+    // Mark the workbook as no longer in use and close it on a worker thread. An
+    // update that is running on it will see the mark and not touch it again.
+    private static void discard(final LiveStatsbook live) {
+        if (live == null) { return; }
+        live.discarded = true;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (live) { live.reset(); }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The workbook is only referenced from here, so the GC will take care of it.
+        }
+    }
+
+    // Must be called while holding the core lock, so the game can't be deleted
+    // between the check and the workbook being added.
+    private static LiveStatsbook liveStatsbookFor(Game g) {
+        List<LiveStatsbook> evicted = new ArrayList<>();
+        LiveStatsbook live;
+        synchronized (liveStatsbooks) {
+            live = liveStatsbooks.get(g);
+            // don't keep a workbook around for a game that has been deleted meanwhile
+            if (live == null && g.getScoreBoard().getGame(g.getId()) == g) {
+                live = new LiveStatsbook();
+                liveStatsbooks.put(g, live);
+                // Each workbook takes up a lot of heap, so only keep the most recently used ones.
+                Iterator<LiveStatsbook> it = liveStatsbooks.values().iterator();
+                while (liveStatsbooks.size() > MAX_LIVE_STATSBOOKS) {
+                    evicted.add(it.next());
+                    it.remove();
+                }
+            }
+        }
+        for (LiveStatsbook e : evicted) { discard(e); }
+        return live;
+    }
+
+    public static void setWorkerCount(int count) {
+        count = Math.max(1, Math.min(count, MAX_WORKERS));
+        synchronized (executor) {
+            // The core size may never exceed the maximum size, so order the updates accordingly.
+            if (count > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(count);
+                executor.setCorePoolSize(count);
+            } else {
+                executor.setCorePoolSize(count);
+                executor.setMaximumPoolSize(count);
+            }
+        }
+    }
+
+    // Load the blank statsbook into the template cache and exercise POI once, so
+    // the first export doesn't have to wait for class loading.
     public static void preload(String blankStatsbookPath) {
-        if ("".equals(blankStatsbookPath)) { return; }
-        new Thread(new Runnable() {
+        if ("".equals(blankStatsbookPath)) {
+            invalidateTemplate();
+            return;
+        }
+        templateExecutor.execute(new Runnable() {
             @Override
             public void run() {
                 try {
-                    FileInputStream in = new FileInputStream(Paths.get(blankStatsbookPath).toFile());
-                    Workbook wb = WorkbookFactory.create(in);
-                    in.close();
+                    Workbook wb = WorkbookFactory.create(new ByteArrayInputStream(getTemplateBytes(blankStatsbookPath)));
 
                     Sheet igrf = wb.getSheet("IGRF");
                     Font strikeFont = wb.createFont();
@@ -78,64 +232,279 @@ public class StatsbookExporter extends Thread {
                     List<Integer> values = Arrays.asList(4, 4, 4);
                     cell.setCellFormula(values.stream().map(String::valueOf).collect(Collectors.joining("+")));
 
-                    Path tmpPath = Paths.get("config/~tmp.xlsx");
-                    FileOutputStream out = new FileOutputStream(tmpPath.toFile());
-                    wb.write(out);
-                    out.close();
+                    wb.write(NullOutputStream.NULL_OUTPUT_STREAM);
                     wb.close();
 
-                    Files.delete(tmpPath);
+                    prepareSpareTemplate();
                 } catch (Exception e) { Logger.printStackTrace(e); }
             }
-        }).start();
+        });
     }
 
     @Override
     public void run() {
+        queueDepth.dec();
         boolean success = false;
+        long reservedMemory = 0;
+        Histogram.Timer timer = null;
         try {
             String blankStatsbookPath = game.getScoreBoard().getSettings().get(ScoreBoard.SETTING_STATSBOOK_INPUT);
             if (!"".equals(blankStatsbookPath)) {
-                Path tmpPath = BasePath.get().toPath().resolve("html/game-data/xlsx/~" + game.getFilename() + ".xlsx");
-                Path fullPath = BasePath.get().toPath().resolve("html/game-data/xlsx/" + game.getFilename() + ".xlsx");
-                Files.copy(Paths.get(blankStatsbookPath), tmpPath, REPLACE_EXISTING);
-                FileInputStream in = new FileInputStream(tmpPath.toFile());
-                wb = WorkbookFactory.create(in);
-                in.close();
-
-                synchronized (coreLock) { fillIgrfAndPenalties(); }
-                synchronized (coreLock) {
-                    fillScoreLineupsAndClock();
-                    if (hadOsOffset) { fillIgrfOsOffsetInfo(); }
+                reservedMemory = Paths.get(blankStatsbookPath).toFile().length() * WORKBOOK_MEMORY_FACTOR;
+                admit(reservedMemory);
+                exportWait.observe((System.nanoTime() - queuedAt) / 1.0E9);
+                timer = (writeFile ? exportDuration : liveUpdateDuration).startTimer();
+                if (writeFile) { game.set(Game.EXPORT_STATUS, Game.ExportStatus.RUNNING); }
+
+                boolean useLive =
+                    Boolean.parseBoolean(game.getScoreBoard().getSettings().get(ScoreBoard.SETTING_LIVE_STATSBOOK));
+                LiveStatsbook live = null;
+                if (useLive) {
+                    // Extract first, so the core lock is never waited for while holding a workbook.
+                    extract(true);
+                    live = extractedLive;
+                    if (live != null) {
+                        synchronized (live) {
+                            if (live.discarded) {
+                                live.reset();
+                                live = null;
+                            } else {
+                                updateLive(live, blankStatsbookPath);
+                            }
+                        }
+                    }
+                    // The last export of a finished game is the last write the workbook will see.
+                    if (live != null && writeFile && gameOver) { evictLive(live); }
+                }
+                if (live == null && writeFile) {
+                    wb = takeTemplate(blankStatsbookPath);
+                    createCellStyles(wb.getSheet("IGRF"));
+                    if (!useLive) { extract(false); }
+                    for (CellValue v : cells) { writeCell(v, null); }
+                    writeWorkbook(wb);
+                    wb.close();
                 }
-                wb.setForceFormulaRecalculation(true);
-
-                FileOutputStream out = new FileOutputStream(tmpPath.toFile());
-                wb.write(out);
-                out.close();
-                wb.close();
-
-                Files.move(tmpPath, fullPath, REPLACE_EXISTING);
             }
             success = true;
         } catch (Exception e) { Logger.printStackTrace(e); } finally {
-            game.exportDone(success);
+            wb = null;
+            if (timer != null) {
+                timer.observeDuration();
+                release(reservedMemory);
+            }
+            if (writeFile) { game.exportDone(success); }
         }
     }
 
-    private void fillIgrfAndPenalties() {
-        Sheet igrf = wb.getSheet("IGRF");
+    // Only extract the values while holding the lock and do the slow work of
+    // filling the workbook afterwards, so the game isn't held up.
+    private void extract(boolean useLive) {
+        Histogram.Timer lockTimer = extractDuration.startTimer();
+        synchronized (coreLock) {
+            fillIgrfAndPenalties();
+            fillScoreLineupsAndClock();
+            if (hadOsOffset) { fillIgrfOsOffsetInfo(); }
+            if (useLive) {
+                extractedLive = liveStatsbookFor(game);
+                extractSeq = ++extractCount;
+                gameOver = game.isOfficialScore() || game.get(Game.STATE) == Game.State.FINISHED;
+            }
+        }
+        lockTimer.observeDuration();
+    }
+
+    private void evictLive(LiveStatsbook live) {
+        synchronized (liveStatsbooks) {
+            if (liveStatsbooks.get(game) != live) { return; }
+            liveStatsbooks.remove(game);
+        }
+        synchronized (live) {
+            live.discarded = true;
+            live.reset();
+        }
+    }
 
-        createCellStyles(igrf);
+    // Apply the changes since the last update to the live workbook and write it
+    // out if requested. Cells are only ever overwritten, so if a cell filled
+    // before is no longer part of the extract (e.g. after an undo) or lost its
+    // strikeout, start over from a fresh copy of the template.
+    private void updateLive(LiveStatsbook live, String blankStatsbookPath) throws IOException {
+        // Updates of the same game may run on different workers. If a later
+        // extract has already been applied, the workbook is newer than ours.
+        if (extractSeq < live.extractSeq) {
+            if (writeFile) { writeWorkbook(live.wb); }
+            return;
+        }
+        live.extractSeq = extractSeq;
+        Map<String, CellValue> next = new HashMap<>();
+        for (CellValue v : cells) { next.merge(v.key(), v, CellValue::mergeWith); }
+        cells = null;
+
+        String key = templateKey(blankStatsbookPath);
+        boolean rebuild = live.wb == null || !key.equals(live.templateKey);
+        for (Map.Entry<String, CellValue> e : live.cells.entrySet()) {
+            if (rebuild) { break; }
+            CellValue v = next.get(e.getKey());
+            rebuild = v == null || (e.getValue().style != STYLE_KEEP && v.style == STYLE_KEEP);
+        }
+        if (rebuild) {
+            live.reset();
+            live.wb = takeTemplate(blankStatsbookPath);
+            live.templateKey = key;
+            wb = live.wb;
+            createCellStyles(wb.getSheet("IGRF"));
+            live.strikedNum = strikedNum;
+            live.strikedName = strikedName;
+            liveRebuilds.inc();
+        }
+        wb = live.wb;
+        strikedNum = live.strikedNum;
+        strikedName = live.strikedName;
+
+        int changed = 0;
+        for (CellValue v : next.values()) {
+            CellValue old = live.cells.get(v.key());
+            if (!v.equals(old)) {
+                writeCell(v, old);
+                changed++;
+            }
+        }
+        live.cells = next;
+        liveChangedCells.observe(changed);
+
+        if (writeFile) { writeWorkbook(wb); }
+    }
+
+    private void writeWorkbook(Workbook wb) throws IOException {
+        Path tmpPath = BasePath.get().toPath().resolve("html/game-data/xlsx/~" + game.getFilename() + ".xlsx");
+        Path fullPath = BasePath.get().toPath().resolve("html/game-data/xlsx/" + game.getFilename() + ".xlsx");
+        wb.setForceFormulaRecalculation(true);
+
+        FileOutputStream out = new FileOutputStream(tmpPath.toFile());
+        wb.write(out);
+        out.close();
+
+        Files.move(tmpPath, fullPath, REPLACE_EXISTING);
+    }
+
+    // Wait until there is (probably) enough free heap for another workbook. If no
+    // other export is running there is nothing to wait for, so go ahead anyway.
+    private static void admit(long memory) throws InterruptedException {
+        synchronized (admissionLock) {
+            while (runningExports > 0 && freeHeap() - reservedHeap < memory) {
+                admissionLock.wait(1000);
+            }
+            runningExports++;
+            reservedHeap += memory;
+            running.set(runningExports);
+        }
+    }
+
+    private static void release(long memory) {
+        synchronized (admissionLock) {
+            runningExports--;
+            reservedHeap -= memory;
+            running.set(runningExports);
+            admissionLock.notifyAll();
+        }
+    }
+
+    private static long freeHeap() {
+        Runtime rt = Runtime.getRuntime();
+        return rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+    }
+
+    // The blank statsbook is kept in memory, both as the raw file and as one
+    // parsed workbook ready for the next export. POI workbooks can't be copied,
+    // so whenever the parsed one is used up a new one is parsed in the background.
+    // The cache is keyed by path, size and modification time of the file.
+    private static Workbook takeTemplate(String path) throws IOException {
+        byte[] bytes = getTemplateBytes(path);
+        Workbook template;
+        synchronized (templateLock) {
+            template = spareTemplate;
+            spareTemplate = null;
+        }
+        if (template == null) { template = WorkbookFactory.create(new ByteArrayInputStream(bytes)); }
+        prepareSpareTemplate();
+        return template;
+    }
+
+    private static String templateKey(String path) {
+        File file = Paths.get(path).toFile();
+        return file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+    }
+
+    private static byte[] getTemplateBytes(String path) throws IOException {
+        File file = Paths.get(path).toFile();
+        String key = templateKey(path);
+        synchronized (templateLock) {
+            if (!key.equals(templateKey)) {
+                invalidateTemplate();
+                templateBytes = Files.readAllBytes(file.toPath());
+                templateKey = key;
+            }
+            return templateBytes;
+        }
+    }
+
+    private static void prepareSpareTemplate() {
+        final String key;
+        final byte[] bytes;
+        synchronized (templateLock) {
+            if (templateBytes == null || spareTemplate != null || sparePending) { return; }
+            key = templateKey;
+            bytes = templateBytes;
+            sparePending = true;
+        }
+        templateExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Workbook wb = null;
+                try {
+                    wb = WorkbookFactory.create(new ByteArrayInputStream(bytes));
+                } catch (Exception e) { Logger.printStackTrace(e); }
+                synchronized (templateLock) {
+                    sparePending = false;
+                    if (key.equals(templateKey) && spareTemplate == null) {
+                        spareTemplate = wb;
+                        wb = null;
+                    }
+                }
+                closeQuietly(wb);
+            }
+        });
+    }
+
+    private static void invalidateTemplate() {
+        Workbook old;
+        synchronized (templateLock) {
+            old = spareTemplate;
+            spareTemplate = null;
+            templateBytes = null;
+            templateKey = null;
+        }
+        closeQuietly(old);
+    }
+
+    private static void closeQuietly(Workbook wb) {
+        if (wb == null) { return; }
+        try {
+            wb.close();
+        } catch (IOException e) {}
+    }
+
+    private void fillIgrfAndPenalties() {
+        String igrf = "IGRF";
 
         fillIgrfHead(igrf);
         fillExpulsionSuspensionInfo(igrf);
         fillNsos(igrf);
         fillRefs(igrf);
 
-        Sheet penalties = wb.getSheet("Penalties");
-        Sheet clock = wb.getSheet("Game Clock");
-        Sheet box = wb.getSheet("Penalty Box");
+        String penalties = "Penalties";
+        String clock = "Game Clock";
+        String box = "Penalty Box";
 
         fillTeamData(igrf, clock, Team.ID_1);
         fillTeamData(igrf, clock, Team.ID_2);
@@ -155,8 +524,8 @@ public class StatsbookExporter extends Thread {
             int igrfRowId = 13;
             int penRowId = 3;
             for (Skater s : skaters) {
-                fillSkater(igrf.getRow(igrfRowId), s, clock);
-                fillPenalties(penalties.getRow(penRowId), penalties.getRow(penRowId + 1), s);
+                fillSkater(row(igrf, igrfRowId), s, clock);
+                fillPenalties(row(penalties, penRowId), row(penalties, penRowId + 1), s);
                 if (!s.getFlags().startsWith("B")) {
                     igrfRowId++;
                     penRowId += 2;
@@ -166,52 +535,52 @@ public class StatsbookExporter extends Thread {
         }
     }
 
-    private void fillIgrfHead(Sheet igrf) {
-        Row row = igrf.getRow(2);
+    private void fillIgrfHead(String igrf) {
+        RowRef row = row(igrf, 2);
         setEventInfoCell(row, 1, Game.INFO_VENUE);
         setEventInfoCell(row, 8, Game.INFO_CITY);
         setEventInfoCell(row, 10, Game.INFO_STATE);
         setEventInfoCell(row, 11, Game.INFO_GAME_NUMBER);
-        row = igrf.getRow(4);
+        row = row(igrf, 4);
         setEventInfoCell(row, 1, Game.INFO_TOURNAMENT);
         setEventInfoCell(row, 8, Game.INFO_HOST);
-        row = igrf.getRow(6);
+        row = row(igrf, 6);
         try {
             LocalDate date = LocalDate.parse(game.get(Game.EVENT_INFO, Game.INFO_DATE).getValue());
-            row.getCell(1).setCellValue(date);
+            setCell(row, 1, date);
             LocalTime time = LocalTime.parse(game.get(Game.EVENT_INFO, Game.INFO_START_TIME).getValue());
-            row.getCell(8).setCellValue(LocalDateTime.of(date, time));
+            setCell(row, 8, LocalDateTime.of(date, time));
         } catch (Exception e) {} // when parsing fails just leave them empty
     }
 
-    private void fillExpulsionSuspensionInfo(Sheet igrf) {
+    private void fillExpulsionSuspensionInfo(String igrf) {
         boolean suspension = !"".equals(game.get(Game.SUSPENSIONS_SERVED));
-        Row row = igrf.getRow(39);
-        if (suspension) { row.getCell(4).setCellValue(game.get(Game.SUSPENSIONS_SERVED)); }
+        RowRef row = row(igrf, 39);
+        if (suspension) { setCell(row, 4, game.get(Game.SUSPENSIONS_SERVED)); }
         int rowId = 40;
 
         for (Expulsion e : game.getAll(Game.EXPULSION)) {
             suspension = suspension || e.get(Expulsion.SUSPENSION);
-            row = igrf.getRow(rowId);
-            row.getCell(0).setCellValue(e.get(Expulsion.INFO) + " " + e.get(Expulsion.EXTRA_INFO));
-            row.getCell(11).setCellValue(e.get(Expulsion.SUSPENSION) ? "YES" : "NO");
+            row = row(igrf, rowId);
+            setCell(row, 0, e.get(Expulsion.INFO) + " " + e.get(Expulsion.EXTRA_INFO));
+            setCell(row, 11, e.get(Expulsion.SUSPENSION) ? "YES" : "NO");
 
             rowId += 2;
             if (rowId > 45) { break; } // no more space
         }
-        igrf.getRow(6).getCell(11).setCellValue(suspension ? "YES" : "NO");
+        setCell(row(igrf, 6), 11, suspension ? "YES" : "NO");
     }
 
     private void fillIgrfOsOffsetInfo() {
         if (hadOsOffset) {
-            Row row = wb.getSheet("IGRF").getRow(38);
-            row.getCell(3).setCellValue("yes");
-            row.getCell(8).setCellValue(String.join(", ", osOffsetReasons));
+            RowRef row = row("IGRF", 38);
+            setCell(row, 3, "yes");
+            setCell(row, 8, String.join(", ", osOffsetReasons));
         }
     }
 
-    private void fillNsos(Sheet igrf) {
-        if (game.get(Game.HEAD_NSO) != null) { fillOfficialRow(igrf.getRow(59), game.get(Game.HEAD_NSO), true); }
+    private void fillNsos(String igrf) {
+        if (game.get(Game.HEAD_NSO) != null) { fillOfficialRow(row(igrf, 59), game.get(Game.HEAD_NSO), true); }
 
         List<Official> nsos = new ArrayList<>(game.getAll(Game.NSO));
         Collections.sort(nsos, new Comparator<Official>() {
@@ -224,7 +593,7 @@ public class StatsbookExporter extends Thread {
         });
         int rowId = 60;
         for (Official o : nsos) {
-            fillOfficialRow(igrf.getRow(rowId), o);
+            fillOfficialRow(row(igrf, rowId), o);
             String name = o.get(Official.NAME);
             int tId = -1;
             Team t = o.get(Official.P1_TEAM);
@@ -263,7 +632,7 @@ public class StatsbookExporter extends Thread {
         }
     }
 
-    private void fillRefs(Sheet igrf) {
+    private void fillRefs(String igrf) {
         List<Official> refs = new ArrayList<>(game.getAll(Game.REF));
         Collections.sort(refs, new Comparator<Official>() {
             @Override
@@ -275,7 +644,7 @@ public class StatsbookExporter extends Thread {
         });
         int rowId = game.get(Game.HEAD_REF) == null ? 80 : 79;
         for (Official o : refs) {
-            fillOfficialRow(igrf.getRow(rowId), o);
+            fillOfficialRow(row(igrf, rowId), o);
 
             if (Official.ROLE_JR.equals(o.get(Official.ROLE))) {
                 Team t = o.get(Official.P1_TEAM);
@@ -290,58 +659,58 @@ public class StatsbookExporter extends Thread {
         }
     }
 
-    private void fillOfficialRow(Row row, Official o) { fillOfficialRow(row, o, false); }
-    private void fillOfficialRow(Row row, Official o, boolean skipRole) {
+    private void fillOfficialRow(RowRef row, Official o) { fillOfficialRow(row, o, false); }
+    private void fillOfficialRow(RowRef row, Official o, boolean skipRole) {
         if (!skipRole) { setCell(row, 0, o.get(Official.ROLE)); }
         setCell(row, 2, o.get(Official.NAME));
         setCell(row, 7, o.get(Official.LEAGUE));
         setCell(row, 10, o.get(Official.CERT));
     }
 
-    private void fillTeamData(Sheet igrf, Sheet clock, String teamId) {
+    private void fillTeamData(String igrf, String clock, String teamId) {
         Team t = game.getTeam(teamId);
         int col = Team.ID_1.equals(teamId) ? 1 : 8;
-        setCell(igrf.getRow(9), col, t.get(Team.LEAGUE_NAME));
-        setCell(igrf.getRow(10), col, t.get(Team.TEAM_NAME));
-        setCell(igrf.getRow(11), col, t.get(Team.UNIFORM_COLOR));
+        setCell(row(igrf, 9), col, t.get(Team.LEAGUE_NAME));
+        setCell(row(igrf, 10), col, t.get(Team.TEAM_NAME));
+        setCell(row(igrf, 11), col, t.get(Team.UNIFORM_COLOR));
         String captain = t.get(Team.CAPTAIN) == null ? "" : t.get(Team.CAPTAIN).get(Skater.NAME);
-        setCell(igrf.getRow(48), col, captain);
-        setCell(clock.getRow(Team.ID_1.equals(teamId) ? 4 : 6), 1, captain);
-        setCell(clock.getRow(Team.ID_1.equals(teamId) ? 55 : 57), 1, captain);
+        setCell(row(igrf, 48), col, captain);
+        setCell(row(clock, Team.ID_1.equals(teamId) ? 4 : 6), 1, captain);
+        setCell(row(clock, Team.ID_1.equals(teamId) ? 55 : 57), 1, captain);
     }
 
-    private void fillPenaltiesHead(Sheet penalties) {
-        Row row = penalties.getRow(0);
+    private void fillPenaltiesHead(String penalties) {
+        RowRef row = row(penalties, 0);
         setCell(row, 13, pt);
         setCell(row, 41, pt);
     }
 
-    private void fillBoxHead(Sheet box) {
-        Row row = box.getRow(0);
+    private void fillBoxHead(String box) {
+        RowRef row = row(box, 0);
         setCell(row, 11, pbt[0][0]);
         setCell(row, 28, pbt[0][1]);
-        row = box.getRow(43);
+        row = row(box, 43);
         setCell(row, 11, pbt[1][0]);
         setCell(row, 28, pbt[1][1]);
     }
 
-    private void fillSkater(Row row, Skater s, Sheet clock) {
+    private void fillSkater(RowRef row, Skater s, String clock) {
         String teamId = s.getTeam().getProviderId();
         String flags = s.getFlags();
         if ("A".equals(flags) || "BA".equals(flags)) {
-            setCell(clock.getRow(Team.ID_1.equals(teamId) ? 5 : 7), 1, s.getName());
-            setCell(clock.getRow(Team.ID_1.equals(teamId) ? 56 : 58), 1, s.getName());
+            setCell(row(clock, Team.ID_1.equals(teamId) ? 5 : 7), 1, s.getName());
+            setCell(row(clock, Team.ID_1.equals(teamId) ? 56 : 58), 1, s.getName());
         }
         if ("ALT".equals(flags)) {
-            setCell(row, Team.ID_1.equals(teamId) ? 1 : 8, s.getRosterNumber() + "*", strikedNum);
-            setCell(row, Team.ID_1.equals(teamId) ? 2 : 9, s.getName(), strikedName);
+            setCell(row, Team.ID_1.equals(teamId) ? 1 : 8, s.getRosterNumber() + "*", STYLE_STRIKED_NUM);
+            setCell(row, Team.ID_1.equals(teamId) ? 2 : 9, s.getName(), STYLE_STRIKED_NAME);
         } else if (!flags.startsWith("B")) {
             setCell(row, Team.ID_1.equals(teamId) ? 1 : 8, s.getRosterNumber());
             setCell(row, Team.ID_1.equals(teamId) ? 2 : 9, s.getName());
         }
     }
 
-    private void fillPenalties(Row penRow, Row jamRow, Skater s) {
+    private void fillPenalties(RowRef penRow, RowRef jamRow, Skater s) {
         for (Penalty p : s.getAll(Skater.PENALTY)) {
             int num = p.getNumber();
             int period = p.getPeriodNumber();
@@ -355,16 +724,16 @@ public class StatsbookExporter extends Thread {
     }
 
     private void fillScoreLineupsAndClock() {
-        Sheet score = wb.getSheet("Score");
-        Sheet osOffset = wb.getSheet("OS Offset");
-        Sheet lineups = wb.getSheet("Lineups");
-        Sheet clock = wb.getSheet("Game Clock");
+        String score = "Score";
+        String osOffset = "OS Offset";
+        String lineups = "Lineups";
+        String clock = "Game Clock";
         int[] toCols = {3, 3};
 
         for (int pn = 0; pn < game.getCurrentPeriodNumber(); pn++) {
             int rowIndex = pn * 42;
-            fillScoreHead(score.getRow(rowIndex), pn);
-            fillLineupsHead(lineups.getRow(rowIndex), pn);
+            fillScoreHead(row(score, rowIndex), pn);
+            fillLineupsHead(row(lineups, rowIndex), pn);
 
             Period p = game.get(Game.PERIOD, pn + 1);
             toCols = fillTimeouts(clock, toCols, p);
@@ -376,8 +745,8 @@ public class StatsbookExporter extends Thread {
 
             rowIndex += 3;
             for (int jn = 1; jn <= p.getCurrentJamNumber(); jn++) {
-                fillJam(score.getRow(rowIndex), score.getRow(rowIndex + 1), osOffset.getRow(rowIndex),
-                        lineups.getRow(rowIndex), lineups.getRow(rowIndex + 1), clock.getRow(pn * 51 + jn + 9),
+                fillJam(row(score, rowIndex), row(score, rowIndex + 1), row(osOffset, rowIndex),
+                        row(lineups, rowIndex), row(lineups, rowIndex + 1), row(clock, pn * 51 + jn + 9),
                         p.getJam(jn));
                 rowIndex += p.getJam(jn).get(Jam.STAR_PASS) ? 2 : 1;
                 if (rowIndex > 82 || (rowIndex > 40 && rowIndex < 45)) { break; } // end of sheet
@@ -385,22 +754,22 @@ public class StatsbookExporter extends Thread {
         }
     }
 
-    private void fillScoreHead(Row row, int period) {
+    private void fillScoreHead(RowRef row, int period) {
         setCell(row, 11, sk[period][0]);
         setCell(row, 30, sk[period][1]);
         setCell(row, 14, jr[period][0]);
         setCell(row, 33, jr[period][1]);
     }
 
-    private void fillLineupsHead(Row row, int period) {
+    private void fillLineupsHead(RowRef row, int period) {
         setCell(row, 15, lt[period][0]);
         setCell(row, 41, lt[period][1]);
     }
 
-    private int[] fillTimeouts(Sheet clockSheet, int[] toCol, Period p) {
+    private int[] fillTimeouts(String clockSheet, int[] toCol, Period p) {
         int[] orCol = {6, 6};
         int baseRow = p.getNumber() == 1 ? 0 : 51;
-        Row[] toRows = {clockSheet.getRow(baseRow + 4), clockSheet.getRow(baseRow + 6)};
+        RowRef[] toRows = {row(clockSheet, baseRow + 4), row(clockSheet, baseRow + 6)};
 
         List<Timeout> timeouts = new ArrayList<>(p.getAll(Period.TIMEOUT));
         Collections.sort(timeouts, new Comparator<Timeout>() {
@@ -417,7 +786,7 @@ public class StatsbookExporter extends Thread {
                 ClockConversion.toHumanReadable(t.get(Timeout.PRECEDING_JAM).get(Jam.PERIOD_CLOCK_DISPLAY_END));
             if (t.getOwner() instanceof Team) {
                 int i = (t.getOwner() == game.get(Game.TEAM, Team.ID_1) ? 0 : 1);
-                Row toRow = toRows[i];
+                RowRef toRow = toRows[i];
                 if (t.isReview()) {
                     if (orCol[i] <= 7) {
                         setCell(toRow, orCol[i], endTime);
@@ -438,7 +807,7 @@ public class StatsbookExporter extends Thread {
 
         if (p.getNumber() == 1) { // cross off timeouts for P2
             for (int i = 1; i <= 2; i++) {
-                Row row = clockSheet.getRow(53 + i * 2);
+                RowRef row = row(clockSheet, 53 + i * 2);
                 for (int col = 3; col < toCol[i - 1]; col++) { setCell(row, col, "X"); }
             }
         }
@@ -446,8 +815,8 @@ public class StatsbookExporter extends Thread {
         return toCol;
     }
 
-    private void fillJam(Row scoreRow, Row scoreSpRow, Row osOffsetRow, Row lineupsRow, Row lineupsSpRow, Row clockRow,
-                         Jam j) {
+    private void fillJam(RowRef scoreRow, RowRef scoreSpRow, RowRef osOffsetRow, RowRef lineupsRow,
+                         RowRef lineupsSpRow, RowRef clockRow, Jam j) {
         injuries = new ArrayList<>();
 
         TeamJam tj = j.getTeamJam(Team.ID_1);
@@ -463,7 +832,7 @@ public class StatsbookExporter extends Thread {
         fillClockJam(clockRow, j);
     }
 
-    private void fillScoreTeamJam(Row baseRow, Row spRow, int baseCol, TeamJam tj) {
+    private void fillScoreTeamJam(RowRef baseRow, RowRef spRow, int baseCol, TeamJam tj) {
         if (tj.getJam().isInjuryContinuation()) {
             setCell(baseRow, baseCol, "INJ" + (tj.isLead() ? "*" : ""));
         } else {
@@ -489,8 +858,8 @@ public class StatsbookExporter extends Thread {
         }
     }
 
-    private ScoringTrip fillInitialTrip(Row baseRow, Row spRow, int initialCol, ScoringTrip initialTrip) {
-        Row initialRow = baseRow;
+    private ScoringTrip fillInitialTrip(RowRef baseRow, RowRef spRow, int initialCol, ScoringTrip initialTrip) {
+        RowRef initialRow = baseRow;
         if (initialTrip.getNumber() > 1) {
             // injury continuation jam
             return fillTrip(baseRow, spRow, initialCol + initialTrip.getNumber() - 1, initialTrip);
@@ -524,12 +893,12 @@ public class StatsbookExporter extends Thread {
         }
     }
 
-    private ScoringTrip fillTrip(Row baseRow, Row spRow, int col, ScoringTrip trip) {
+    private ScoringTrip fillTrip(RowRef baseRow, RowRef spRow, int col, ScoringTrip trip) {
         setCell(trip.isAfterSP() ? spRow : baseRow, col, trip.getScore(), trip.getAnnotation());
         return trip;
     }
 
-    private ScoringTrip fillLastTrips(Row row, int col, ScoringTrip trip, boolean afterSp) {
+    private ScoringTrip fillLastTrips(RowRef row, int col, ScoringTrip trip, boolean afterSp) {
         List<Integer> points = new ArrayList<>();
         List<String> comments = new ArrayList<>();
 
@@ -545,7 +914,7 @@ public class StatsbookExporter extends Thread {
         return trip;
     }
 
-    private void fillOsOffsetTeamJam(Row osOffsetRow, int startCol, TeamJam tj) {
+    private void fillOsOffsetTeamJam(RowRef osOffsetRow, int startCol, TeamJam tj) {
         if (tj.getOsOffset() != 0) {
             setCell(osOffsetRow, startCol + 1, tj.getOsOffset());
             setCell(osOffsetRow, startCol + 2, tj.get(TeamJam.OS_OFFSET_REASON));
@@ -554,7 +923,7 @@ public class StatsbookExporter extends Thread {
         }
     }
 
-    private void fillLineupsTeamJam(Row baseRow, Row spRow, int c, TeamJam tj) {
+    private void fillLineupsTeamJam(RowRef baseRow, RowRef spRow, int c, TeamJam tj) {
         setCell(baseRow, c + 1, tj.hasNoPivot() ? "X" : "");
         fillFielding(baseRow, c + 2, tj.getFielding(FloorPosition.JAMMER), false, true);
         fillFielding(baseRow, c + 6, tj.getFielding(FloorPosition.PIVOT), false);
@@ -562,7 +931,7 @@ public class StatsbookExporter extends Thread {
         fillFielding(baseRow, c + 14, tj.getFielding(FloorPosition.BLOCKER2), false);
         fillFielding(baseRow, c + 18, tj.getFielding(FloorPosition.BLOCKER3), false);
         if (tj.isStarPass()) {
-            spRow.getCell(c + 1).setCellValue("X");
+            setCell(spRow, c + 1, "X");
             fillFielding(spRow, c + 2, tj.getFielding(FloorPosition.PIVOT), true, true);
             fillFielding(spRow, c + 6, tj.getFielding(FloorPosition.JAMMER), true);
             fillFielding(spRow, c + 10, tj.getFielding(FloorPosition.BLOCKER1), true);
@@ -571,10 +940,10 @@ public class StatsbookExporter extends Thread {
         }
     }
 
-    private void fillFielding(Row row, int startCol, Fielding f, boolean afterSp) {
+    private void fillFielding(RowRef row, int startCol, Fielding f, boolean afterSp) {
         fillFielding(row, startCol, f, afterSp, false);
     }
-    private void fillFielding(Row row, int startCol, Fielding f, boolean afterSp, boolean skipNumber) {
+    private void fillFielding(RowRef row, int startCol, Fielding f, boolean afterSp, boolean skipNumber) {
         if (!skipNumber) { setCell(row, startCol, f.get(Fielding.SKATER_NUMBER), f.get(Fielding.ANNOTATION)); }
         String[] boxSyms =
             f.get(afterSp ? Fielding.BOX_TRIP_SYMBOLS_AFTER_S_P : Fielding.BOX_TRIP_SYMBOLS_BEFORE_S_P).split(" ");
@@ -586,7 +955,7 @@ public class StatsbookExporter extends Thread {
         }
     }
 
-    private void fillClockJam(Row row, Jam j) {
+    private void fillClockJam(RowRef row, Jam j) {
         List<String> events = new ArrayList<>();
         List<String> eventDetails = new ArrayList<>();
         boolean bAddTimeToDetails = false;
@@ -620,39 +989,137 @@ public class StatsbookExporter extends Thread {
         }
     }
 
-    private void setEventInfoCell(Row row, int col, String key) {
+    private void setEventInfoCell(RowRef row, int col, String key) {
         ValWithId kv = game.get(Game.EVENT_INFO, key);
         setCell(row, col, kv == null ? "" : kv.getValue());
     }
 
-    private void setCell(Row row, int col, String value) { setCell(row, col, value, ""); }
-    private void setCell(Row row, int col, String value, CellStyle style) {
-        setCell(row, col, value, "");
-        row.getCell(col).setCellStyle(style);
+    private void setCell(RowRef row, int col, String value) { setCell(row, col, value, ""); }
+    private void setCell(RowRef row, int col, String value, int style) {
+        cells.add(new CellValue(row, col, value, "", style));
     }
-    private void setCell(Row row, int col, String value, String comment) {
-        Cell cell = row.getCell(col);
-        if (!"".equals(value)) {
-            cell.setCellValue(value);
-        } else {
-            cell.setBlank();
+    private void setCell(RowRef row, int col, String value, String comment) {
+        cells.add(new CellValue(row, col, value, comment, STYLE_KEEP));
+    }
+    private void setCell(RowRef row, int col, double value) { setCell(row, col, value, ""); }
+    private void setCell(RowRef row, int col, double value, String comment) {
+        cells.add(new CellValue(row, col, value, comment, STYLE_KEEP));
+    }
+    private void setCell(RowRef row, int col, LocalDate value) {
+        cells.add(new CellValue(row, col, value, "", STYLE_KEEP));
+    }
+    private void setCell(RowRef row, int col, LocalDateTime value) {
+        cells.add(new CellValue(row, col, value, "", STYLE_KEEP));
+    }
+    private void setCell(RowRef row, int col, List<Integer> values, List<String> comments) {
+        cells.add(new CellValue(row, col, new ArrayList<>(values), String.join("; ", comments), STYLE_KEEP));
+    }
+
+    private RowRef row(String sheet, int row) { return new RowRef(sheet, row); }
+
+    // Write a recorded value to the workbook. Doesn't touch the game, so this
+    // runs without holding the core lock. old is the value previously written
+    // to the same cell of a live statsbook, if any.
+    private void writeCell(CellValue v, CellValue old) {
+        Cell cell = wb.getSheet(v.row.sheet).getRow(v.row.row).getCell(v.col);
+        if (v.value instanceof String) {
+            if (!"".equals(v.value)) {
+                cell.setCellValue((String) v.value);
+            } else {
+                cell.setBlank();
+            }
+        } else if (v.value instanceof Double) {
+            cell.setCellValue((Double) v.value);
+        } else if (v.value instanceof LocalDate) {
+            cell.setCellValue((LocalDate) v.value);
+        } else if (v.value instanceof LocalDateTime) {
+            cell.setCellValue((LocalDateTime) v.value);
+        } else if (v.value instanceof List) {
+            @SuppressWarnings("unchecked")
+            List<Integer> values = (List<Integer>) v.value;
+            if (values.size() > 1) {
+                cell.setCellFormula(values.stream().map(String::valueOf).collect(Collectors.joining("+")));
+            } else {
+                // In a live statsbook the cell may still hold the trips from before an undo and
+                // setting a value keeps a formula, so clear it first.
+                cell.setBlank();
+                if (values.size() == 1) { cell.setCellValue(values.get(0)); }
+            }
         }
-        setComment(cell, comment);
+        if (v.style == STYLE_STRIKED_NUM) {
+            cell.setCellStyle(strikedNum);
+        } else if (v.style == STYLE_STRIKED_NAME) {
+            cell.setCellStyle(strikedName);
+        }
+        if (old != null && !"".equals(old.comment) && "".equals(v.comment)) { cell.removeCellComment(); }
+        setComment(cell, v.comment);
     }
-    private void setCell(Row row, int col, double value) { setCell(row, col, value, ""); }
-    private void setCell(Row row, int col, double value, String comment) {
-        Cell cell = row.getCell(col);
-        cell.setCellValue(value);
-        setComment(cell, comment);
+
+    // The workbook of a game kept in memory between updates, together with the
+    // cell values last written to it.
+    private static class LiveStatsbook {
+        private void reset() {
+            closeQuietly(wb);
+            wb = null;
+            templateKey = null;
+            cells = new HashMap<>();
+        }
+
+        private Workbook wb;
+        private String templateKey;
+        private long extractSeq;
+        private volatile boolean discarded = false;
+        private CellStyle strikedNum;
+        private CellStyle strikedName;
+        private Map<String, CellValue> cells = new HashMap<>();
     }
-    private void setCell(Row row, int col, List<Integer> values, List<String> comments) {
-        Cell cell = row.getCell(col);
-        if (values.size() > 1) {
-            cell.setCellFormula(values.stream().map(String::valueOf).collect(Collectors.joining("+")));
-        } else if (values.size() == 1) {
-            cell.setCellValue(values.get(0));
+
+    private static class RowRef {
+        private RowRef(String sheet, int row) {
+            this.sheet = sheet;
+            this.row = row;
         }
-        setComment(cell, String.join("; ", comments));
+
+        private final String sheet;
+        private final int row;
+    }
+
+    // A single cell of the statsbook as extracted from the game.
+    private static class CellValue {
+        private CellValue(RowRef row, int col, Object value, String comment, int style) {
+            this.row = row;
+            this.col = col;
+            this.value = value;
+            this.comment = comment;
+            this.style = style;
+        }
+
+        private String key() { return row.sheet + "/" + row.row + "/" + col; }
+
+        // The combined effect of writing this and then other to the same cell.
+        private CellValue mergeWith(CellValue other) {
+            return new CellValue(row, col, other.value, "".equals(other.comment) ? comment : other.comment,
+                                 other.style == STYLE_KEEP ? style : other.style);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CellValue)) { return false; }
+            CellValue other = (CellValue) o;
+            return key().equals(other.key()) && Objects.equals(value, other.value) &&
+                comment.equals(other.comment) && style == other.style;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(key(), value, comment, style);
+        }
+
+        private final RowRef row;
+        private final int col;
+        private final Object value;
+        private final String comment;
+        private final int style;
     }
 
     private static void setComment(Cell cell, String text) {
@@ -707,7 +1174,111 @@ public class StatsbookExporter extends Thread {
     private String[][] pbt = {{"", ""}, {"", ""}};
 
     private List<String> injuries;
+    private long queuedAt;
+    private boolean writeFile;
+    private LiveStatsbook extractedLive;
+    private long extractSeq;
+    private boolean gameOver;
+    private List<CellValue> cells = new ArrayList<>();
 
     private Boolean hadOsOffset = false;
     private List<String> osOffsetReasons = new ArrayList<>();
+
+    private static final int STYLE_KEEP = 0;
+    private static final int STYLE_STRIKED_NUM = 1;
+    private static final int STYLE_STRIKED_NAME = 2;
+
+    private static final int MAX_WORKERS = 8;
+    private static final long LIVE_UPDATE_DELAY_MS = 2000;
+    private static final int MAX_LIVE_STATSBOOKS = 4;
+    private static final int MAX_QUEUED_EXPORTS = 100;
+    // Rough ratio of the heap needed while filling a workbook to the size of the xlsx file.
+    private static final long WORKBOOK_MEMORY_FACTOR = 50;
+
+    private static final ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(MAX_QUEUED_EXPORTS),
+                               new ThreadFactory() {
+                                   @Override
+                                   public Thread newThread(Runnable r) {
+                                       Thread t = new Thread(r, "StatsbookExporter-" + threadCount.incrementAndGet());
+                                       t.setDaemon(true);
+                                       return t;
+                                   }
+                               });
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private static final ScheduledExecutorService liveUpdateScheduler =
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "StatsbookLiveUpdates");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    // Parses blank statsbooks ahead of time, kept apart from the export workers
+    // so neither has to wait for the other.
+    private static final ExecutorService templateExecutor =
+        Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "StatsbookTemplates");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    private static final Set<Game> pendingLiveUpdates = new HashSet<>();
+    // In order of last use.
+    private static final Map<Game, LiveStatsbook> liveStatsbooks = new LinkedHashMap<>(16, 0.75f, true);
+    // Guarded by the core lock.
+    private static long extractCount = 0;
+
+    private static final Object admissionLock = new Object();
+    private static int runningExports = 0;
+    private static long reservedHeap = 0;
+
+    private static final Gauge queueDepth =
+        Gauge.build().name("crg_statsbook_export_queue_depth").help("Statsbook exports waiting for a worker").register();
+    private static final Gauge running =
+        Gauge.build().name("crg_statsbook_export_running").help("Statsbook exports currently running").register();
+    private static final Counter rejectedExports = Counter.build()
+                                                       .name("crg_statsbook_export_rejected")
+                                                       .help("Statsbook exports dropped because the queue was full")
+                                                       .register();
+    private static final Histogram exportWait = Histogram.build()
+                                                    .name("crg_statsbook_export_wait_seconds")
+                                                    .help("Time from queueing a statsbook export until it started")
+                                                    .register();
+    private static final Histogram extractDuration =
+        Histogram.build()
+            .name("crg_statsbook_export_extract_duration_seconds")
+            .help("Time the core lock is held to extract the data for a statsbook export")
+            .buckets(.001, .0025, .005, .01, .025, .05, .1, .25, .5)
+            .register();
+    private static final Histogram liveUpdateDuration = Histogram.build()
+                                                            .name("crg_statsbook_live_update_duration_seconds")
+                                                            .help("Time spent updating a live statsbook in memory")
+                                                            .register();
+    private static final Histogram liveChangedCells =
+        Histogram.build()
+            .name("crg_statsbook_live_update_changed_cells")
+            .help("Number of cells changed by a live statsbook update")
+            .buckets(0, 1, 5, 10, 25, 50, 100, 250, 500, 1000)
+            .register();
+    private static final Counter liveRebuilds =
+        Counter.build()
+            .name("crg_statsbook_live_rebuilds")
+            .help("Number of times a live statsbook was rebuilt from the template")
+            .register();
+    private static final Histogram exportDuration = Histogram.build()
+                                                        .name("crg_statsbook_export_duration_seconds")
+                                                        .help("Time spent filling and writing a statsbook")
+                                                        .buckets(.5, 1, 2, 5, 10, 20, 30, 60)
+                                                        .register();
+
+    private static final Object templateLock = new Object();
+    private static String templateKey;
+    private static byte[] templateBytes;
+    private static Workbook spareTemplate;
+    private static boolean sparePending = false;
 }
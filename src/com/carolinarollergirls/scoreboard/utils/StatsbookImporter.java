@@ -5,14 +5,30 @@ import java.io.InputStream;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
 
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.poifs.filesystem.FileMagic;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.DataFormatter;
 import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
 import com.carolinarollergirls.scoreboard.core.game.GameImpl;
 import com.carolinarollergirls.scoreboard.core.interfaces.Game;
@@ -23,12 +39,24 @@ import com.carolinarollergirls.scoreboard.core.interfaces.Team;
 import com.carolinarollergirls.scoreboard.event.Child;
 import com.carolinarollergirls.scoreboard.event.ScoreBoardEventProviderImpl;
 
+import io.prometheus.client.Histogram;
+
 public class StatsbookImporter {
     public StatsbookImporter(ScoreBoard sb) { scoreboard = sb; }
 
-    public void read(InputStream in) {
+    public synchronized void read(InputStream in) {
         try {
-            wb = WorkbookFactory.create(in);
+            in = FileMagic.prepareToCheckMagic(in);
+            if (FileMagic.valueOf(in) == FileMagic.OOXML) {
+                Histogram.Timer timer = importDuration.labels("streaming").startTimer();
+                readIgrfStreaming(in);
+                timer.observeDuration();
+            } else {
+                // Old style .xls files can't be streamed, so read them the slow way.
+                Histogram.Timer timer = importDuration.labels("workbook").startTimer();
+                readIgrfFromWorkbook(in);
+                timer.observeDuration();
+            }
             game = new GameImpl(scoreboard, UUID.randomUUID().toString());
             readIgrf();
             scoreboard.runInBatch(new Runnable() {
@@ -37,28 +65,88 @@ public class StatsbookImporter {
                     synchronized (coreLock) { scoreboard.add(ScoreBoard.GAME, game); }
                 }
             });
-        } catch (IOException e) { Logger.printStackTrace(e); }
+        } catch (IOException | OpenXML4JException | SAXException e) { Logger.printStackTrace(e); } finally {
+            igrfCells.clear();
+        }
+    }
+
+    // Only the IGRF sheet is needed, so parse just that one with the SAX based
+    // event API instead of building the whole workbook in memory. Parsing stops
+    // after the last row that is used.
+    private void readIgrfStreaming(InputStream in) throws IOException, OpenXML4JException, SAXException {
+        try (OPCPackage pkg = OPCPackage.open(in)) {
+            XSSFReader reader = new XSSFReader(pkg);
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            while (sheets.hasNext()) {
+                try (InputStream sheet = sheets.next()) {
+                    if (!"IGRF".equals(sheets.getSheetName())) { continue; }
+                    XMLReader parser = XMLHelper.newXMLReader();
+                    parser.setContentHandler(new XSSFSheetXMLHandler(reader.getStylesTable(),
+                                                                     new ReadOnlySharedStringsTable(pkg),
+                                                                     new IgrfContentsHandler(), formatter, false));
+                    try {
+                        parser.parse(new InputSource(sheet));
+                    } catch (StopParsingException e) {}
+                    return;
+                } catch (ParserConfigurationException e) { throw new SAXException(e); }
+            }
+        }
+    }
+
+    private void readIgrfFromWorkbook(InputStream in) throws IOException {
+        try (Workbook wb = WorkbookFactory.create(in)) {
+            for (Row row : wb.getSheet("IGRF")) {
+                if (row.getRowNum() > LAST_IGRF_ROW) { break; }
+                for (Cell cell : row) {
+                    setIgrfCell(row.getRowNum(), cell.getColumnIndex(), formatter.formatCellValue(cell));
+                }
+            }
+        }
+    }
+
+    private void setIgrfCell(int row, int col, String value) {
+        igrfCells.computeIfAbsent(row, r -> new HashMap<>()).put(col, value);
+    }
+
+    private class IgrfContentsHandler implements SheetContentsHandler {
+        @Override
+        public void startRow(int rowNum) {
+            if (rowNum > LAST_IGRF_ROW) { throw new StopParsingException(); }
+        }
+
+        @Override
+        public void endRow(int rowNum) {}
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            CellReference ref = new CellReference(cellReference);
+            setIgrfCell(ref.getRow(), ref.getCol(), formattedValue);
+        }
+    }
+
+    // Thrown from the SAX handler to skip the rest of the sheet.
+    private static class StopParsingException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
     }
 
     private void readIgrf() {
-        Sheet igrf = wb.getSheet("IGRF");
-        readIgrfHead(igrf);
-        readTeam(igrf, Team.ID_1);
-        readTeam(igrf, Team.ID_2);
-        readOfficials(igrf);
-        readExpulsionSuspensionInfo(igrf);
+        readIgrfHead();
+        readTeam(Team.ID_1);
+        readTeam(Team.ID_2);
+        readOfficials();
+        readExpulsionSuspensionInfo();
     }
 
-    private void readIgrfHead(Sheet igrf) {
-        Row row = igrf.getRow(2);
+    private void readIgrfHead() {
+        int row = 2;
         readEventInfoCell(row, 1, Game.INFO_VENUE);
         readEventInfoCell(row, 8, Game.INFO_CITY);
         readEventInfoCell(row, 10, Game.INFO_STATE);
         readEventInfoCell(row, 11, Game.INFO_GAME_NUMBER);
-        row = igrf.getRow(4);
+        row = 4;
         readEventInfoCell(row, 1, Game.INFO_TOURNAMENT);
         readEventInfoCell(row, 8, Game.INFO_HOST);
-        row = igrf.getRow(6);
+        row = 6;
         readEventInfoCell(row, 1, Game.INFO_DATE);
         String timeString = readCell(row, 8);
         try {
@@ -68,18 +156,18 @@ public class StatsbookImporter {
         game.add(Game.EVENT_INFO, new ValWithId(Game.INFO_START_TIME, timeString));
     }
 
-    private void readTeam(Sheet igrf, String teamId) {
+    private void readTeam(String teamId) {
         Team team = game.getTeam(teamId);
         int col = Team.ID_1.equals(teamId) ? 1 : 8;
-        team.set(Team.LEAGUE_NAME, readCell(igrf.getRow(9), col));
-        team.set(Team.TEAM_NAME, readCell(igrf.getRow(10), col));
-        team.set(Team.UNIFORM_COLOR, readCell(igrf.getRow(11), col));
-        String captainName = readCell(igrf.getRow(48), col);
+        team.set(Team.LEAGUE_NAME, readCell(9, col));
+        team.set(Team.TEAM_NAME, readCell(10, col));
+        team.set(Team.UNIFORM_COLOR, readCell(11, col));
+        String captainName = readCell(48, col);
 
-        for (int i = 13; i < 33; ++i) { readSkater(igrf.getRow(i), team, captainName); }
+        for (int i = 13; i < 33; ++i) { readSkater(i, team, captainName); }
     }
 
-    private void readSkater(Row row, Team team, String captainName) {
+    private void readSkater(int row, Team team, String captainName) {
         int col = Team.ID_1.equals(team.getProviderId()) ? 1 : 8;
         String number = readCell(row, col);
         String name = readCell(row, col + 1);
@@ -93,12 +181,12 @@ public class StatsbookImporter {
         s.setName(name);
     }
 
-    private void readOfficials(Sheet igrf) {
+    private void readOfficials() {
         Child<Official> type = Game.NSO;
-        for (int i = 59; i < 88; ++i) { type = readOfficial(igrf.getRow(i), type); }
+        for (int i = 59; i < 88; ++i) { type = readOfficial(i, type); }
     }
 
-    private Child<Official> readOfficial(Row row, Child<Official> lastType) {
+    private Child<Official> readOfficial(int row, Child<Official> lastType) {
         String role = readCell(row, 0);
         if ("".equals(role)) { return Game.REF; }
         Child<Official> type;
@@ -167,23 +255,33 @@ public class StatsbookImporter {
         return type;
     }
 
-    private void readExpulsionSuspensionInfo(Sheet igrf) {
-        game.set(Game.SUSPENSIONS_SERVED, readCell(igrf.getRow(39), 4));
+    private void readExpulsionSuspensionInfo() {
+        game.set(Game.SUSPENSIONS_SERVED, readCell(39, 4));
     }
 
-    private void readEventInfoCell(Row row, int col, String key) {
+    private void readEventInfoCell(int row, int col, String key) {
         game.add(Game.EVENT_INFO, new ValWithId(key, readCell(row, col)));
     }
 
-    private String readCell(Row row, int col) {
-        Cell cell = row.getCell(col);
-        return formatter.formatCellValue(cell);
+    private String readCell(int row, int col) {
+        Map<Integer, String> cells = igrfCells.get(row);
+        String value = cells == null ? null : cells.get(col);
+        return value == null ? "" : value;
     }
 
     ScoreBoard scoreboard;
     Game game;
-    Workbook wb;
+    // formatted values of the IGRF sheet by row and column
+    Map<Integer, Map<Integer, String>> igrfCells = new HashMap<>();
     DataFormatter formatter = new DataFormatter();
 
+    private static final int LAST_IGRF_ROW = 87;
+
+    private static final Histogram importDuration = Histogram.build()
+                                                        .name("crg_statsbook_import_duration_seconds")
+                                                        .help("Time spent reading the IGRF of uploaded statsbooks")
+                                                        .labelNames("method")
+                                                        .register();
+
     Object coreLock = ScoreBoardEventProviderImpl.getCoreLock();
 }
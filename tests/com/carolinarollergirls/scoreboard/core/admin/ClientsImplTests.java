@@ -218,6 +218,62 @@ public class ClientsImplTests {
         assertEquals(0, clients.numberOf(Clients.DEVICE));
     }
 
+    @Test
+    public void testEphemeralTimestamps() {
+        Device d = clients.getOrAddDevice("S1");
+        long created = d.get(Device.ACCESSED);
+        // Recent enough, not updated.
+        d.access();
+        assertEquals(created, (long) d.get(Device.ACCESSED));
+        d.set(Device.ACCESSED, created - ClientsImpl.EPHEMERAL_INTERVAL_MS);
+        d.access();
+        assertTrue(d.get(Device.ACCESSED) >= created);
+
+        Client c = clients.addClient(d.getId(), "remoteaddr", "source", "platform");
+        c.write();
+        long wrote = c.get(Client.WROTE);
+        assertNotEquals(0, wrote);
+        assertEquals(wrote, (long) d.get(Device.WROTE));
+        c.write();
+        assertEquals(wrote, (long) c.get(Client.WROTE));
+
+        // Saved when the client goes away.
+        long now = System.currentTimeMillis();
+        d.set(Device.ACCESSED, now - 1000);
+        d.access();
+        assertEquals(now - 1000, (long) d.get(Device.ACCESSED));
+        clients.removeClient(c);
+        assertTrue(d.get(Device.ACCESSED) >= now);
+    }
+
+    @Test
+    public void testDeviceIndexes() {
+        Device d = clients.getOrAddDevice("S1");
+        String name = d.getName();
+        assertEquals(d, clients.getDeviceByName(name));
+
+        d.set(Device.NAME, "renamed");
+        assertNull(clients.getDeviceByName(name));
+        assertEquals(d, clients.getDeviceByName("renamed"));
+
+        d.set(Device.SESSION_ID_SECRET, "S2");
+        assertNull(clients.getDevice("S1"));
+        assertEquals(d, clients.getDevice("S2"));
+
+        clients.remove(Clients.DEVICE, d);
+        assertNull(clients.getDevice("S2"));
+        assertNull(clients.getDeviceByName("renamed"));
+
+        // Loaded from a file.
+        Map<String, Object> state = new HashMap<>();
+        state.put("ScoreBoard.Clients.Device(d1).Id", "d1");
+        state.put("ScoreBoard.Clients.Device(d1).SessionIdSecret", "d1s");
+        state.put("ScoreBoard.Clients.Device(d1).Name", "d1n");
+        ScoreBoardJSONSetter.set(sb, state, Source.JSON);
+        assertEquals("d1", clients.getDevice("d1s").getId());
+        assertEquals("d1", clients.getDeviceByName("d1n").getId());
+    }
+
     protected void fuzzSet(String path) {
         List<JSONSet> sets =
             new ArrayList<>(Arrays.asList(new JSONSet(path, null, null), new JSONSet(path, "", null),
@@ -0,0 +1,126 @@
+package com.carolinarollergirls.scoreboard.core.game;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.carolinarollergirls.scoreboard.core.ScoreBoardImpl;
+import com.carolinarollergirls.scoreboard.core.interfaces.ArchivedGame;
+import com.carolinarollergirls.scoreboard.core.interfaces.CurrentGame;
+import com.carolinarollergirls.scoreboard.core.interfaces.Game;
+import com.carolinarollergirls.scoreboard.core.interfaces.ScoreBoard;
+import com.carolinarollergirls.scoreboard.core.interfaces.Team;
+import com.carolinarollergirls.scoreboard.json.ScoreBoardJSONListener;
+import com.carolinarollergirls.scoreboard.utils.BasePath;
+import com.carolinarollergirls.scoreboard.utils.ScoreBoardClock;
+
+public class ArchivedGameImplTests {
+
+    @org.junit.Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+    private File oldDir;
+
+    private ScoreBoard sb;
+    private Game g;
+
+    @Before
+    public void setUp() throws Exception {
+        oldDir = BasePath.get();
+        BasePath.set(dir.getRoot());
+        dir.newFolder("config", "penalties");
+        Files.copy(oldDir.toPath().resolve("config/penalties/wftda2018.json"),
+                   dir.getRoot().toPath().resolve("config/penalties/wftda2018.json"));
+        ScoreBoardClock.getInstance().stop();
+
+        sb = new ScoreBoardImpl();
+        sb.postAutosaveUpdate();
+        new ScoreBoardJSONListener(sb, sb.getJsm());
+        g = sb.getOrCreate(ScoreBoard.GAME, "g1");
+        g.getTeam(Team.ID_1).getOrCreate(Team.SKATER, "s1").setName("Skater One");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ScoreBoardClock.getInstance().start(false);
+        BasePath.set(oldDir);
+    }
+
+    @Test
+    public void testArchiveAndRestore() {
+        g.startJam();
+        g.stopJamTO();
+        g.setOfficialScore(true);
+        assertEquals(Game.State.FINISHED, g.get(Game.STATE));
+        g.archive();
+
+        assertNull(sb.getGame("g1"));
+        ArchivedGame ag = sb.getArchivedGame("g1");
+        assertNotNull(ag);
+        String filename = ag.get(ArchivedGame.FILENAME);
+        assertEquals(g.getFilename(), filename);
+        assertEquals(g.get(Game.NAME), ag.get(ArchivedGame.NAME));
+        assertTrue(new File(dir.getRoot(), "html/game-data/json/" + filename + ".json").exists());
+        assertTrue(ag.getArchiveFile().exists());
+        // The export is the user's, restoring must not depend on it.
+        new File(dir.getRoot(), "html/game-data/json/" + filename + ".json").delete();
+
+        ag.restore();
+
+        assertNull(sb.getArchivedGame("g1"));
+        assertFalse(ag.getArchiveFile().exists());
+        Game restored = sb.getGame("g1");
+        assertNotNull(restored);
+        assertTrue(restored.isOfficialScore());
+        assertEquals(filename, restored.getFilename());
+        assertEquals("Skater One", restored.getTeam(Team.ID_1).getSkater("s1").getName());
+        assertEquals(0, (int) sb.get(ScoreBoard.IMPORTS_IN_PROGRESS));
+    }
+
+    @Test
+    public void testNoArchiveIfFileNotWritten() throws Exception {
+        g.setOfficialScore(true);
+        // A file in place of the directory makes the write fail.
+        dir.newFile("config/archive");
+        g.archive();
+
+        assertEquals(g, sb.getGame("g1"));
+        assertNull(sb.getArchivedGame("g1"));
+    }
+
+    @Test
+    public void testNoArchiveOfUnofficialGame() {
+        g.execute(Game.ARCHIVE);
+        assertEquals(g, sb.getGame("g1"));
+        assertNull(sb.getArchivedGame("g1"));
+    }
+
+    @Test
+    public void testNoArchiveOfCurrentGame() {
+        g.setOfficialScore(true);
+        sb.getCurrentGame().load(g);
+        g.execute(Game.ARCHIVE);
+        assertEquals(g, sb.getGame("g1"));
+        assertNull(sb.getArchivedGame("g1"));
+    }
+
+    @Test
+    public void testRestoreMissingFile() {
+        ArchivedGame ag = sb.getOrCreate(ScoreBoard.ARCHIVED_GAME, "g2");
+        ag.set(ArchivedGame.FILENAME, "does-not-exist");
+        ag.restore();
+        assertNull(sb.getGame("g2"));
+        assertEquals(ag, sb.getArchivedGame("g2"));
+        assertFalse(ag.get(ArchivedGame.RESTORING));
+        assertEquals(0, (int) sb.get(ScoreBoard.IMPORTS_IN_PROGRESS));
+    }
+}
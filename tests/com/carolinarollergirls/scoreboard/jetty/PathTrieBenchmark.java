@@ -0,0 +1,175 @@
+package com.carolinarollergirls.scoreboard.jetty;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import com.carolinarollergirls.scoreboard.core.ScoreBoardImpl;
+import com.carolinarollergirls.scoreboard.core.interfaces.ScoreBoard;
+import com.carolinarollergirls.scoreboard.json.JSONStateListener;
+import com.carolinarollergirls.scoreboard.json.JSONStateManager;
+import com.carolinarollergirls.scoreboard.json.ScoreBoardJSONListener;
+
+/**
+ * Times WS.PathTrie.covers over the keys of a fresh scoreboard, for the path
+ * sets the screens under html/views and html/nso register. Paths are taken
+ * from the WS.Register calls in their sources, with concatenated variables
+ * replaced by *. The previous regex based implementation is included as a
+ * baseline, and both have to agree on every key.
+ *
+ * Run with: ant benchmark -Dbenchmark=jetty.PathTrieBenchmark
+ */
+public class PathTrieBenchmark {
+    public static void main(String[] args) throws Exception {
+        Map<String, Set<String>> screens = screenPaths();
+        List<String> keys = stateKeys();
+        System.out.println(keys.size() + " state keys, " + screens.size() + " screens");
+
+        long rounds = args.length > 0 ? Long.parseLong(args[0]) : 200;
+        System.out.printf("%-40s %6s %12s %12s%n", "screen", "paths", "regex ns/key", "trie ns/key");
+        for (Map.Entry<String, Set<String>> e : screens.entrySet()) {
+            WS.PathTrie trie = new WS.PathTrie();
+            trie.addAll(e.getValue());
+            RegexPathTrie baseline = new RegexPathTrie();
+            baseline.addAll(e.getValue());
+            for (String k : keys) {
+                if (trie.covers(k) != baseline.covers(k)) {
+                    throw new IllegalStateException("Mismatch for " + k + " in " + e.getKey());
+                }
+            }
+            double regex = time(keys, rounds, baseline::covers);
+            double compiled = time(keys, rounds, trie::covers);
+            System.out.printf("%-40s %6d %12.1f %12.1f%n", e.getKey(), e.getValue().size(), regex, compiled);
+        }
+        // The scoreboard's timer threads would keep us running.
+        System.exit(0);
+    }
+
+    private static double time(List<String> keys, long rounds, Predicate<String> covers) {
+        int found = 0;
+        // warm up
+        for (int r = 0; r < rounds; r++) {
+            for (String k : keys) {
+                if (covers.test(k)) { found++; }
+            }
+        }
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (String k : keys) {
+                if (covers.test(k)) { found++; }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (found == -1) { System.out.println(); } // keep the loop from being optimized away
+        return (double) elapsed / rounds / keys.size();
+    }
+
+    private static List<String> stateKeys() {
+        final Map<String, Object> state = new HashMap<>();
+        JSONStateManager jsm = new JSONStateManager();
+        ScoreBoard sb = new ScoreBoardImpl();
+        sb.postAutosaveUpdate();
+        new ScoreBoardJSONListener(sb, jsm);
+        jsm.register(new JSONStateListener() {
+            @Override
+            public void sendUpdates(Map<String, Object> s, Set<String> changed) {
+                synchronized (state) {
+                    state.clear();
+                    state.putAll(s);
+                }
+            }
+        });
+        jsm.waitForSent();
+        synchronized (state) { return new ArrayList<>(state.keySet()); }
+    }
+
+    // Register paths of each screen under html/views and html/nso, by source file.
+    static Map<String, Set<String>> screenPaths() throws IOException {
+        Map<String, Set<String>> screens = new TreeMap<>();
+        for (String dir : new String[] {"html/views", "html/nso"}) { collectPaths(new File(dir).toPath(), screens); }
+        return screens;
+    }
+
+    private static void collectPaths(Path dir, Map<String, Set<String>> screens) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path f : (Iterable<Path>) files::iterator) {
+                if (!f.toString().endsWith(".js")) { continue; }
+                String source = new String(Files.readAllBytes(f), StandardCharsets.UTF_8);
+                Set<String> paths = new TreeSet<>();
+                Matcher register = REGISTER.matcher(source);
+                while (register.find()) {
+                    Matcher literal = PATH_EXPRESSION.matcher(source);
+                    literal.region(register.end(), source.length());
+                    while (literal.lookingAt()) {
+                        paths.add(literal.group().replaceAll("'\\s*\\+[^']*\\+\\s*'", "*").replaceAll(
+                            "'\\s*\\+[^']*$", "*").replace("'", ""));
+                        // Lists of paths.
+                        Matcher next = NEXT_ELEMENT.matcher(source);
+                        next.region(literal.end(), source.length());
+                        if (!next.lookingAt()) { break; }
+                        literal.region(next.end(), source.length());
+                    }
+                }
+                if (!paths.isEmpty()) { screens.put(dir.relativize(f).toString(), paths); }
+            }
+        }
+    }
+
+    private static final Pattern REGISTER = Pattern.compile("WS\\.Register\\(\\s*\\[?\\s*");
+    private static final Pattern PATH_EXPRESSION =
+        Pattern.compile("'(ScoreBoard|WS)[^']*'(\\s*\\+\\s*[\\w.\\[\\]]+(\\(\\))?\\s*\\+\\s*'[^']*')*(\\s*\\+\\s*[\\w.]+)?");
+    private static final Pattern NEXT_ELEMENT = Pattern.compile("\\s*,\\s*");
+
+    // WS.PathTrie as it was before it was compiled into a character matcher.
+    private static class RegexPathTrie {
+        boolean exists = false;
+        Map<String, RegexPathTrie> trie = new HashMap<>();
+
+        public void addAll(Set<String> c) {
+            for (String p : c) { add(p); }
+        }
+        public void add(String path) {
+            String[] p = path.split("[.(]");
+            RegexPathTrie head = this;
+            for (int i = 0; !head.exists && i < p.length; i++) {
+                if (head.trie.containsKey(p[i])) {
+                    head = head.trie.get(p[i]);
+                } else {
+                    RegexPathTrie child = new RegexPathTrie();
+                    head.trie.put(p[i], child);
+                    head = child;
+                }
+            }
+            head.exists = true;
+        }
+        public boolean covers(String p) { return _covers(p.split("[.(]"), 0); }
+        private boolean _covers(String[] p, int i) {
+            RegexPathTrie head = this;
+            for (;; i++) {
+                if (head.exists) { return true; }
+                if (i >= p.length) { return false; }
+                if (head.trie.containsKey("*)")) {
+                    int j;
+                    for (j = i; j < p.length && !p[j].endsWith(")"); j++)
+                        ;
+                    if (head.trie.get("*)")._covers(p, j + 1)) { return true; }
+                }
+                head = head.trie.get(p[i]);
+                if (head == null) { return false; }
+            }
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package com.carolinarollergirls.scoreboard.jetty;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.fasterxml.jackson.jr.ob.JSON;
+
+import com.carolinarollergirls.scoreboard.core.ScoreBoardImpl;
+import com.carolinarollergirls.scoreboard.core.interfaces.Game;
+import com.carolinarollergirls.scoreboard.core.interfaces.ScoreBoard;
+import com.carolinarollergirls.scoreboard.core.interfaces.Team;
+import com.carolinarollergirls.scoreboard.json.JSONStateManager;
+import com.carolinarollergirls.scoreboard.json.ScoreBoardJSONListener;
+
+/**
+ * Starts a scoreboard with its web server in this JVM, connects growing
+ * numbers of WebSocket or Server-Sent Events clients and runs a simulated
+ * game while measuring how long updates take to reach the clients. Each client
+ * watches the paths of one of the screens under html/views and html/nso (see
+ * PathTrieBenchmark), taking turns, plus a probe setting. The game driver
+ * changes the probe together with every game action, and clients note when
+ * they see each value.
+ *
+ * Reported per step: update latency percentiles, CPU used by everything but
+ * the client threads (as % of one core) and heap in use after a GC, both in
+ * total and per client. The per client heap is relative to the heap in use
+ * before any client connected.
+ *
+ * Run with: ant benchmark -Dbenchmark=jetty.WSLoadBenchmark -Dbenchmark.args="1,10,50,100 20"
+ * Arguments are the client counts, the seconds to run each step and
+ * optionally the kind of client: "ws" (the default), "nocompress" for
+ * WebSockets with compression turned off or "sse" for Server-Sent Events.
+ */
+public class WSLoadBenchmark {
+    public static void main(String[] args) throws Exception {
+        int[] counts = {1, 10, 25, 50, 100};
+        if (args.length > 0) { counts = Arrays.stream(args[0].split(",")).mapToInt(Integer::parseInt).toArray(); }
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        String mode = args.length > 2 ? args[2] : "ws";
+        boolean compress = !"nocompress".equals(mode);
+
+        final ScoreBoard sb = new ScoreBoardImpl();
+        JSONStateManager jsm = sb.getJsm();
+        new ScoreBoardJSONListener(sb, jsm);
+        sb.runInBatch(new Runnable() {
+            @Override
+            public void run() {
+                sb.postAutosaveUpdate();
+                sb.getSettings().set(ScoreBoard.SETTING_WS_COMPRESSION, String.valueOf(compress));
+            }
+        });
+        int port;
+        try (ServerSocket s = new ServerSocket(0)) { port = s.getLocalPort(); }
+        new JettyServletScoreBoardController(sb, jsm, "localhost", port).start();
+
+        List<Set<String>> screens = new ArrayList<>(PathTrieBenchmark.screenPaths().values());
+        List<LoadClient> clients = new ArrayList<>();
+        GameDriver driver = new GameDriver(sb);
+        System.gc();
+        long baseHeap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+        System.out.printf("%s clients%n", "sse".equals(mode) ? "Server-Sent Events" : "WebSocket");
+        System.out.printf("%7s %8s %8s %8s %8s %8s %8s %8s %9s %9s%n", "clients", "samples", "p50 ms", "p90 ms",
+                          "p99 ms", "max ms", "cpu %", "heap MB", "cpu %/cl", "heap KB/cl");
+        for (int n : counts) {
+            while (clients.size() < n) {
+                Set<String> paths = screens.get(clients.size() % screens.size());
+                LoadClient c = "sse".equals(mode) ? new SseClient(clients.size(), port, paths)
+                                                  : new WsClient(clients.size(), port, paths);
+                c.connect();
+                clients.add(c);
+            }
+            for (LoadClient c : clients) {
+                if (!c.synced.await(60, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("Client " + c.id + " didn't sync");
+                }
+            }
+            latencies.clear();
+            Map<Long, Long> cpuBefore = serverCpuTimes();
+            long start = System.nanoTime();
+            driver.run(seconds);
+            long wall = System.nanoTime() - start;
+            // Let stragglers arrive.
+            Thread.sleep(500);
+            Map<Long, Long> cpuAfter = serverCpuTimes();
+            long cpu = 0;
+            for (Map.Entry<Long, Long> e : cpuAfter.entrySet()) {
+                Long before = cpuBefore.get(e.getKey());
+                cpu += e.getValue() - (before == null ? 0 : before);
+            }
+            System.gc();
+            long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+            long[] l;
+            synchronized (latencies) { l = latencies.stream().mapToLong(Long::longValue).sorted().toArray(); }
+            System.out.printf("%7d %8d %8.1f %8.1f %8.1f %8.1f %8.1f %8.1f %9.2f %9.1f%n", n, l.length,
+                              percentile(l, 50), percentile(l, 90), percentile(l, 99), percentile(l, 100),
+                              100.0 * cpu / wall, heap / 1048576.0, 100.0 * cpu / wall / n,
+                              (heap - baseHeap) / 1024.0 / n);
+        }
+        // The scoreboard's timer threads would keep us running. Clients are left
+        // connected, closing them only makes the server log failed writes.
+        System.exit(0);
+    }
+
+    private static double percentile(long[] sorted, int p) {
+        if (sorted.length == 0) { return Double.NaN; }
+        int i = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, i)] / 1e6;
+    }
+
+    // CPU time of all threads except the clients', by thread id.
+    private static Map<Long, Long> serverCpuTimes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Map<Long, Long> times = new HashMap<>();
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().startsWith(CLIENT_THREAD_PREFIX)) { continue; }
+            long cpu = threads.getThreadCpuTime(t.getId());
+            if (cpu >= 0) { times.put(t.getId(), cpu); }
+        }
+        return times;
+    }
+
+    // Plays jams of 15s with 5s lineups in between, scoring a trip every second
+    // during jams. Every action and a probe tick every 200ms also set the probe.
+    private static class GameDriver {
+        private GameDriver(ScoreBoard sb) { this.sb = sb; }
+
+        private void run(int seconds) throws InterruptedException {
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            long next = System.nanoTime();
+            while (next < end) {
+                final int t = tick++;
+                final String seq = String.valueOf(t);
+                sb.runInBatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        Game g = sb.getCurrentGame().getSourceElement();
+                        if (t % 100 == 0) {
+                            g.startJam();
+                        } else if (t % 100 == 75) {
+                            g.stopJamTO();
+                        } else if (t % 100 < 75 && t % 5 == 0) {
+                            g.getTeam(t % 10 == 0 ? Team.ID_1 : Team.ID_2).set(Team.TRIP_SCORE, random.nextInt(5));
+                        }
+                        probes.put(seq, System.nanoTime());
+                        sb.getSettings().set(PROBE_SETTING, seq);
+                    }
+                });
+                next += TICK_NANOS;
+                long sleep = next - System.nanoTime();
+                if (sleep > 0) { TimeUnit.NANOSECONDS.sleep(sleep); }
+            }
+        }
+
+        private final ScoreBoard sb;
+        private final Random random = new Random(0);
+        private int tick = 0;
+    }
+
+    private abstract static class LoadClient implements Runnable {
+        protected LoadClient(int id, int port, Set<String> paths) {
+            this.id = id;
+            this.port = port;
+            this.paths = new ArrayList<>(paths);
+            this.paths.add(PROBE_KEY);
+        }
+
+        protected abstract void connect() throws IOException;
+
+        // Returns the next message, or null once the server closed the connection.
+        protected abstract String readMessage() throws IOException;
+
+        // Whether the message completes the initial state.
+        protected abstract boolean isSync(Map<String, Object> json);
+
+        protected void start() {
+            Thread t = new Thread(this, CLIENT_THREAD_PREFIX + id);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                String message;
+                while ((message = readMessage()) != null) { handle(message); }
+            } catch (IOException e) {
+                System.err.println("Client " + id + ": " + e);
+            }
+        }
+
+        private void handle(String message) throws IOException {
+            long received = System.nanoTime();
+            Map<String, Object> json = JSON.std.mapFrom(message);
+            if (isSync(json)) { synced.countDown(); }
+            Object state = json.get("state");
+            if (state instanceof Map) {
+                Object seq = ((Map<?, ?>) state).get(PROBE_KEY);
+                Long sent = seq == null ? null : probes.get(seq);
+                if (sent != null && synced.getCount() == 0) {
+                    synchronized (latencies) { latencies.add(received - sent); }
+                }
+            }
+        }
+
+        protected String readHeaders() throws IOException {
+            StringBuilder headers = new StringBuilder();
+            while (!headers.toString().endsWith("\r\n\r\n")) {
+                int b = in.read();
+                if (b < 0) { throw new IOException("Connection closed during handshake"); }
+                headers.append((char) b);
+            }
+            return headers.toString();
+        }
+
+        protected final int id;
+        protected final int port;
+        protected final List<String> paths;
+        protected final CountDownLatch synced = new CountDownLatch(1);
+        protected DataInputStream in;
+        protected OutputStream out;
+    }
+
+    // Minimal WebSocket client, just enough to talk to our own server.
+    private static class WsClient extends LoadClient {
+        private WsClient(int id, int port, Set<String> paths) { super(id, port, paths); }
+
+        @Override
+        protected void connect() throws IOException {
+            Socket socket = new Socket("localhost", port);
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+            byte[] nonce = new byte[16];
+            new Random().nextBytes(nonce);
+            String request = "GET /WS/?source=LoadTest HTTP/1.1\r\n"
+                             + "Host: localhost:" + port + "\r\n"
+                             + "Upgrade: websocket\r\n"
+                             + "Connection: Upgrade\r\n"
+                             + "Sec-WebSocket-Key: " + Base64.getEncoder().encodeToString(nonce) + "\r\n"
+                             + "Sec-WebSocket-Version: 13\r\n"
+                             + "Sec-WebSocket-Extensions: permessage-deflate\r\n\r\n";
+            out.write(request.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            String headers = readHeaders();
+            if (!headers.startsWith("HTTP/1.1 101")) { throw new IOException("Upgrade failed: " + headers); }
+            if (headers.toLowerCase().contains("permessage-deflate")) { inflater = new Inflater(true); }
+
+            Map<String, Object> register = new HashMap<>();
+            register.put("action", "Register");
+            register.put("paths", paths);
+            send(JSON.std.asString(register));
+            start();
+        }
+
+        @Override
+        protected boolean isSync(Map<String, Object> json) {
+            return json.containsKey("syncComplete");
+        }
+
+        @Override
+        protected String readMessage() throws IOException {
+            ByteArrayOutputStream message = new ByteArrayOutputStream();
+            boolean compressed = false;
+            boolean first = true;
+            while (true) {
+                int b0 = in.readUnsignedByte();
+                int b1 = in.readUnsignedByte();
+                long length = b1 & 0x7f;
+                if (length == 126) {
+                    length = in.readUnsignedShort();
+                } else if (length == 127) {
+                    length = in.readLong();
+                }
+                byte[] payload = new byte[(int) length];
+                in.readFully(payload);
+                int opCode = b0 & 0x0f;
+                if (opCode == OP_CLOSE) { return null; }
+                if (opCode >= OP_CLOSE) { continue; } // ping/pong
+                if (first) {
+                    compressed = (b0 & 0x40) != 0;
+                    first = false;
+                }
+                message.write(payload, 0, payload.length);
+                if ((b0 & 0x80) != 0) { break; }
+            }
+            byte[] data = message.toByteArray();
+            if (compressed) { data = inflate(data); }
+            return new String(data, StandardCharsets.UTF_8);
+        }
+
+        private byte[] inflate(byte[] data) throws IOException {
+            byte[] input = Arrays.copyOf(data, data.length + 4);
+            System.arraycopy(DEFLATE_TAIL, 0, input, data.length, 4);
+            inflater.setInput(input);
+            ByteArrayOutputStream inflated = new ByteArrayOutputStream(data.length * 4);
+            byte[] buf = new byte[8192];
+            try {
+                while (true) {
+                    int n = inflater.inflate(buf);
+                    if (n == 0 && (inflater.needsInput() || inflater.finished())) { break; }
+                    inflated.write(buf, 0, n);
+                }
+            } catch (DataFormatException e) { throw new IOException(e); }
+            return inflated.toByteArray();
+        }
+
+        private synchronized void send(String text) throws IOException {
+            byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.length + 14);
+            frame.write(0x80 | OP_TEXT);
+            if (payload.length < 126) {
+                frame.write(0x80 | payload.length);
+            } else if (payload.length < 65536) {
+                frame.write(0x80 | 126);
+                frame.write(payload.length >> 8);
+                frame.write(payload.length);
+            } else {
+                frame.write(0x80 | 127);
+                for (int shift = 56; shift >= 0; shift -= 8) { frame.write((int) ((long) payload.length >> shift)); }
+            }
+            byte[] mask = new byte[4];
+            new Random().nextBytes(mask);
+            frame.write(mask, 0, 4);
+            for (int i = 0; i < payload.length; i++) { frame.write(payload[i] ^ mask[i % 4]); }
+            out.write(frame.toByteArray());
+            out.flush();
+        }
+
+        private Inflater inflater;
+    }
+
+    // Minimal EventSource, reading the chunked response of /Events.
+    private static class SseClient extends LoadClient {
+        private SseClient(int id, int port, Set<String> paths) { super(id, port, paths); }
+
+        @Override
+        protected void connect() throws IOException {
+            Socket socket = new Socket("localhost", port);
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+            StringBuilder query = new StringBuilder();
+            for (String p : paths) {
+                query.append(query.length() == 0 ? "?path=" : "&path=");
+                query.append(URLEncoder.encode(p, "UTF-8"));
+            }
+            String request = "GET /Events/" + query + " HTTP/1.1\r\n"
+                             + "Host: localhost:" + port + "\r\n"
+                             + "Accept: text/event-stream\r\n\r\n";
+            out.write(request.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            String headers = readHeaders();
+            if (!headers.startsWith("HTTP/1.1 200")) { throw new IOException("Request failed: " + headers); }
+            if (!headers.toLowerCase().contains("transfer-encoding: chunked")) {
+                throw new IOException("Expected a chunked response: " + headers);
+            }
+            start();
+        }
+
+        // The first event holds the current values of all watched keys.
+        @Override
+        protected boolean isSync(Map<String, Object> json) {
+            return true;
+        }
+
+        // Returns the data of the next event, skipping keep-alive comments.
+        @Override
+        protected String readMessage() throws IOException {
+            while (true) {
+                int end = indexOfEventEnd();
+                while (end < 0) {
+                    if (!readChunk()) { return null; }
+                    end = indexOfEventEnd();
+                }
+                byte[] data = buffer.toByteArray();
+                buffer.reset();
+                buffer.write(data, end + 2, data.length - end - 2);
+                String event = new String(data, 0, end, StandardCharsets.UTF_8);
+                if (event.startsWith("data: ")) { return event.substring(6); }
+            }
+        }
+
+        private int indexOfEventEnd() {
+            byte[] data = buffer.toByteArray();
+            for (int i = 0; i + 1 < data.length; i++) {
+                if (data[i] == '\n' && data[i + 1] == '\n') { return i; }
+            }
+            return -1;
+        }
+
+        // Jetty only sends the line break ending a chunk together with the next
+        // chunk, so it is skipped as an empty line before the size rather than
+        // waited for after the data.
+        private boolean readChunk() throws IOException {
+            StringBuilder line = new StringBuilder();
+            while (line.length() == 0) {
+                int b;
+                while ((b = in.read()) != '\n') {
+                    if (b < 0) { return false; }
+                    if (b != '\r') { line.append((char) b); }
+                }
+            }
+            int length = Integer.parseInt(line.toString().trim(), 16);
+            if (length == 0) { return false; }
+            byte[] chunk = new byte[length];
+            in.readFully(chunk);
+            buffer.write(chunk, 0, length);
+            return true;
+        }
+
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    }
+
+    private static final String PROBE_SETTING = "LoadTest.Probe";
+    private static final String PROBE_KEY = "ScoreBoard.Settings.Setting(" + PROBE_SETTING + ")";
+    private static final String CLIENT_THREAD_PREFIX = "load client ";
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final int OP_TEXT = 1;
+    private static final int OP_CLOSE = 8;
+    private static final byte[] DEFLATE_TAIL = {0, 0, (byte) 0xff, (byte) 0xff};
+
+    // When each probe value was set, and how long it took to arrive at each client.
+    private static final Map<String, Long> probes = new ConcurrentHashMap<>();
+    private static final List<Long> latencies = new ArrayList<>();
+}
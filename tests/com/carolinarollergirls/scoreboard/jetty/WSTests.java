@@ -1,5 +1,6 @@
 package com.carolinarollergirls.scoreboard.jetty;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -100,4 +101,18 @@ public class WSTests {
         assertTrue(pt.covers("ScoreBoard.Rulesets.Rule(Jam)"));
         assertTrue(pt.covers("ScoreBoard.Rulesets.Rule(Intermission.Direction)"));
     }
+
+    @Test
+    public void sync_priority() {
+        assertEquals(0, WS.syncPriority("ScoreBoard.CurrentGame.Clock(Jam).Time", "g1"));
+        assertEquals(0, WS.syncPriority("ScoreBoard.CurrentGame.InJam", "g1"));
+        assertEquals(0, WS.syncPriority("ScoreBoard.CurrentGame.Team(1).Score", "g1"));
+        assertEquals(0, WS.syncPriority("ScoreBoard.CurrentGame.Team(1).Position(Jammer).Name", "g1"));
+        assertEquals(0, WS.syncPriority("ScoreBoard.Game(g1).Clock(Period).Running", "g1"));
+        assertEquals(1, WS.syncPriority("ScoreBoard.CurrentGame.Team(1).Skater(s1).Name", "g1"));
+        assertEquals(1, WS.syncPriority("ScoreBoard.Game(g1).Period(1).Jam(2).Number", "g1"));
+        assertEquals(2, WS.syncPriority("ScoreBoard.Game(g2).Clock(Period).Running", "g1"));
+        assertEquals(2, WS.syncPriority("ScoreBoard.Game(g1).InJam", null));
+        assertEquals(2, WS.syncPriority("ScoreBoard.Settings.Setting(ScoreBoard.View_SwapTeams)", "g1"));
+    }
 }
@@ -0,0 +1,109 @@
+package com.carolinarollergirls.scoreboard.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.carolinarollergirls.scoreboard.json.ScoreBoardJSONSetter.JSONSet;
+
+public class BinaryStateCheckpointTests {
+
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    private SortedMap<String, Object> state = new TreeMap<>();
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        state.put("ScoreBoard.Game(g1).Clock(Jam).Time", 120000L);
+        state.put("ScoreBoard.Game(g1).Clock(Jam).Number", 3);
+        state.put("ScoreBoard.Game(g1).Clock(Jam).Running", true);
+        state.put("ScoreBoard.Game(g1).InJam", false);
+        state.put("ScoreBoard.Game(g1).Period(1).Jam(1).Id", "g1_jam1");
+        state.put("ScoreBoard.Game(g1).Period(1).Jam(1).Previous", "g1_jam0");
+        state.put("ScoreBoard.Game(g1).Team(1).Score", -2);
+        state.put("ScoreBoard.Game(g1).Team(1).Skater(s1).Name", "Dot.Name (\u00fcn\u00efcode)");
+        state.put("ScoreBoard.Settings.Setting(ScoreBoard.View_SwapTeams)", "false");
+        state.put("ScoreBoard.Settings.Setting(ScoreBoard.Clock.Sync)", "");
+        state.put("ScoreBoard.Clients.Device(d1).Comment", null);
+        file = new File(dir.getRoot(), "checkpoint.bin");
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        BinaryStateCheckpoint.write(state, "v5.0.0", file);
+        List<JSONSet> sets = BinaryStateCheckpoint.read(file, "v5.0.0");
+
+        assertEquals(state.size(), sets.size());
+        int i = 0;
+        for (String key : state.keySet()) {
+            JSONSet s = sets.get(i++);
+            assertEquals(key, s.path);
+            Object value = state.get(key);
+            assertEquals(value == null ? null : value.toString(), s.value);
+        }
+    }
+
+    @Test
+    public void testOverwrite() throws Exception {
+        BinaryStateCheckpoint.write(state, "v5.0.0", file);
+        BinaryStateCheckpoint.read(file, "v5.0.0");
+        state.put("ScoreBoard.Game(g1).InJam", true);
+        BinaryStateCheckpoint.write(state, "v5.0.0", file);
+        List<JSONSet> sets = BinaryStateCheckpoint.read(file, "v5.0.0");
+
+        String inJam = null;
+        for (JSONSet s : sets) {
+            if (s.path.equals("ScoreBoard.Game(g1).InJam")) { inJam = s.value; }
+        }
+        assertEquals("true", inJam);
+        // no temporary files left behind
+        assertEquals(1, dir.getRoot().list().length);
+    }
+
+    @Test
+    public void testOtherVersionRejected() throws Exception {
+        BinaryStateCheckpoint.write(state, "v5.0.0", file);
+        try {
+            BinaryStateCheckpoint.read(file, "v5.0.1");
+            fail();
+        } catch (IOException e) {}
+    }
+
+    @Test
+    public void testDamagedFileRejected() throws Exception {
+        BinaryStateCheckpoint.write(state, "v5.0.0", file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() / 2);
+            int b = raf.read();
+            raf.seek(raf.length() / 2);
+            raf.write(b ^ 0xFF);
+        }
+        try {
+            BinaryStateCheckpoint.read(file, "v5.0.0");
+            fail();
+        } catch (IOException e) {}
+    }
+
+    @Test
+    public void testTruncatedFileRejected() throws Exception {
+        BinaryStateCheckpoint.write(state, "v5.0.0", file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) { raf.setLength(raf.length() - 10); }
+        try {
+            BinaryStateCheckpoint.read(file, "v5.0.0");
+            fail();
+        } catch (IOException e) {}
+    }
+}
@@ -0,0 +1,53 @@
+package com.carolinarollergirls.scoreboard.json;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class BinaryStateEncoderTests {
+
+    @Test
+    public void testKeysOnlySentOnce() {
+        BinaryStateEncoder encoder = new BinaryStateEncoder();
+        Map<String, Object> updates = new LinkedHashMap<>();
+        updates.put("ScoreBoard.CurrentGame.Clock(Jam).Time", 119000L);
+        updates.put("ScoreBoard.CurrentGame.InJam", true);
+        byte[] first = encoder.encode(updates);
+        assertEquals(BinaryStateEncoder.FRAME_STATE, first[0]);
+        assertEquals(2, first[1]); // new keys
+        assertEquals(0, first[2]); // first id
+
+        updates.put("ScoreBoard.CurrentGame.Clock(Jam).Time", -1L);
+        updates.put("ScoreBoard.CurrentGame.InJam", null);
+        byte[] second = encoder.encode(updates);
+        assertArrayEquals(new byte[] {BinaryStateEncoder.FRAME_STATE, 0, 2, 2, 0, 4, 1, 1, 0}, second);
+    }
+
+    @Test
+    public void testNewKeysGetNextIds() {
+        BinaryStateEncoder encoder = new BinaryStateEncoder();
+        Map<String, Object> updates = new LinkedHashMap<>();
+        updates.put("A", 1);
+        encoder.encode(updates);
+
+        updates.clear();
+        updates.put("A", 2);
+        updates.put("B", "b");
+        byte[] frame = encoder.encode(updates);
+        assertArrayEquals(new byte[] {BinaryStateEncoder.FRAME_STATE, 1, 1, 1, 'B', 2, 0, 3, 4, 1, 5, 1, 'b'}, frame);
+    }
+
+    @Test
+    public void testTraceIdAppended() {
+        BinaryStateEncoder encoder = new BinaryStateEncoder();
+        Map<String, Object> updates = new LinkedHashMap<>();
+        updates.put("A", true);
+        byte[] frame = encoder.encode(updates, 300L);
+        assertArrayEquals(new byte[] {BinaryStateEncoder.FRAME_TRACED_STATE, 1, 0, 1, 'A', 1, 0, 2, (byte) 0xac, 2},
+                          frame);
+    }
+}
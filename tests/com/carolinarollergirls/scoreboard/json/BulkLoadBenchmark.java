@@ -0,0 +1,241 @@
+package com.carolinarollergirls.scoreboard.json;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.jr.ob.JSON;
+
+import com.carolinarollergirls.scoreboard.core.ScoreBoardImpl;
+import com.carolinarollergirls.scoreboard.core.interfaces.Clients;
+import com.carolinarollergirls.scoreboard.core.interfaces.CurrentGame;
+import com.carolinarollergirls.scoreboard.core.interfaces.Expulsion;
+import com.carolinarollergirls.scoreboard.core.interfaces.Game;
+import com.carolinarollergirls.scoreboard.core.interfaces.Penalty;
+import com.carolinarollergirls.scoreboard.core.interfaces.ScoreBoard;
+import com.carolinarollergirls.scoreboard.core.interfaces.Skater;
+import com.carolinarollergirls.scoreboard.core.interfaces.Team;
+import com.carolinarollergirls.scoreboard.event.Child;
+import com.carolinarollergirls.scoreboard.event.Command;
+import com.carolinarollergirls.scoreboard.event.Property;
+import com.carolinarollergirls.scoreboard.event.ScoreBoardEventProvider;
+import com.carolinarollergirls.scoreboard.event.ScoreBoardEventProvider.Flag;
+import com.carolinarollergirls.scoreboard.event.ScoreBoardEventProvider.Source;
+import com.carolinarollergirls.scoreboard.event.Value;
+import com.carolinarollergirls.scoreboard.json.ScoreBoardJSONSetter.ChildSet;
+import com.carolinarollergirls.scoreboard.json.ScoreBoardJSONSetter.ExpulsionSet;
+import com.carolinarollergirls.scoreboard.json.ScoreBoardJSONSetter.JSONSet;
+import com.carolinarollergirls.scoreboard.json.ScoreBoardJSONSetter.PropertySet;
+import com.carolinarollergirls.scoreboard.json.ScoreBoardJSONSetter.ValueSet;
+import com.carolinarollergirls.scoreboard.utils.Logger;
+import com.carolinarollergirls.scoreboard.utils.ScoreBoardClock;
+import com.carolinarollergirls.scoreboard.utils.ValWithId;
+
+/**
+ * Starts a scoreboard from a generated autosave the way Main does, once with
+ * the sorted bulk load of ScoreBoardJSONSetter and once with the key by key
+ * load it replaced (kept here as LegacySetter). The autosave holds a number of
+ * games with rosters, jams, scores and penalties, played with the scoreboard
+ * clock driven by hand.
+ *
+ * Reported per round: the time to parse the file, to apply it with each
+ * setter and for the whole startup (new scoreboard, JSON listener, load and
+ * postAutosaveUpdate in one batch).
+ *
+ * Run with: ant benchmark -Dbenchmark=json.BulkLoadBenchmark -Dbenchmark.args="10 30 5"
+ * Arguments are the number of games, jams per game and rounds.
+ */
+public class BulkLoadBenchmark {
+    public static void main(String[] args) throws Exception {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int jams = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        ScoreBoardClock.getInstance().stop();
+        String autosave = generate(games, jams);
+        System.out.printf("%d games, %d keys, %.1f KiB%n", games, parse(autosave).size(), autosave.length() / 1024.0);
+
+        System.out.printf("%5s %9s %10s %10s %11s %11s%n", "round", "parse ms", "legacy ms", "sorted ms",
+                          "legacy all", "sorted all");
+        for (int round = 1; round <= rounds; round++) {
+            long start = System.nanoTime();
+            parse(autosave);
+            long parse = System.nanoTime() - start;
+            long[] legacy = startup(autosave, true);
+            long[] sorted = startup(autosave, false);
+            System.out.printf("%5d %9.1f %10.1f %10.1f %11.1f %11.1f%n", round, parse / 1e6, legacy[0] / 1e6,
+                              sorted[0] / 1e6, legacy[1] / 1e6, sorted[1] / 1e6);
+        }
+        // The scoreboard's timer threads would keep us running.
+        System.exit(0);
+    }
+
+    private static Map<String, Object> parse(String autosave) throws Exception {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> state = (Map<String, Object>) JSON.std.mapFrom(autosave).get("state");
+        ScoreBoardJSONSetter.updateToCurrentVersion(state);
+        return state;
+    }
+
+    // Returns the time spent loading the state and for the whole startup.
+    private static long[] startup(String autosave, boolean legacy) throws Exception {
+        final Map<String, Object> state = parse(autosave);
+        final long[] times = new long[2];
+        long start = System.nanoTime();
+        final ScoreBoard sb = new ScoreBoardImpl();
+        new ScoreBoardJSONListener(sb, sb.getJsm());
+        sb.runInBatch(new Runnable() {
+            @Override
+            public void run() {
+                long loadStart = System.nanoTime();
+                if (legacy) {
+                    LegacySetter.set(sb, state, Source.AUTOSAVE);
+                } else {
+                    ScoreBoardJSONSetter.set(sb, state, Source.AUTOSAVE);
+                }
+                times[0] = System.nanoTime() - loadStart;
+                sb.postAutosaveUpdate();
+            }
+        });
+        times[1] = System.nanoTime() - start;
+        return times;
+    }
+
+    private static String generate(int games, int jams) throws Exception {
+        final ScoreBoard sb = new ScoreBoardImpl();
+        new ScoreBoardJSONListener(sb, sb.getJsm());
+        sb.postAutosaveUpdate();
+        final Random random = new Random(0);
+        for (int i = 0; i < games; i++) {
+            sb.runInBatch(new Runnable() {
+                @Override
+                public void run() {
+                    Game g = sb.getOrCreate(ScoreBoard.GAME, UUID.randomUUID().toString());
+                    for (String teamId : new String[] {Team.ID_1, Team.ID_2}) {
+                        Team t = g.getTeam(teamId);
+                        for (int s = 0; s < SKATERS; s++) {
+                            Skater sk = t.getOrCreate(Team.SKATER, UUID.randomUUID().toString());
+                            sk.set(Skater.ROSTER_NUMBER, String.valueOf(s * 7 + 1));
+                            sk.set(Skater.NAME, "Skater " + teamId + "-" + s);
+                        }
+                    }
+                    sb.getCurrentGame().load(g);
+                }
+            });
+            final Game g = sb.getCurrentGame().getSourceElement();
+            for (int j = 0; j < jams; j++) { playJam(sb, g, random); }
+        }
+        return JSON.std.composeString().startObject().putObject("state", sb.getJsm().getState()).end().finish();
+    }
+
+    // A 30s jam with a trip every 5s and a penalty, then a 30s lineup.
+    private static void playJam(ScoreBoard sb, final Game g, final Random random) {
+        sb.runInBatch(new Runnable() {
+            @Override
+            public void run() {
+                g.startJam();
+            }
+        });
+        for (int tick = 1; tick <= PHASE_TICKS; tick++) {
+            ScoreBoardClock.getInstance().advance(ScoreBoardClock.CLOCK_UPDATE_INTERVAL);
+            if (tick % 25 == 0) {
+                g.getTeam(tick % 50 == 0 ? Team.ID_1 : Team.ID_2).set(Team.TRIP_SCORE, random.nextInt(5));
+            }
+        }
+        sb.runInBatch(new Runnable() {
+            @Override
+            public void run() {
+                Team t = g.getTeam(random.nextBoolean() ? Team.ID_1 : Team.ID_2);
+                List<Skater> skaters = new ArrayList<>(t.getAll(Team.SKATER));
+                Skater sk = skaters.get(random.nextInt(skaters.size()));
+                Penalty p = sk.getOrCreate(Skater.PENALTY, String.valueOf(sk.numberOf(Skater.PENALTY) + 1));
+                p.set(Penalty.JAM, g.getCurrentPeriod().getCurrentJam());
+                p.set(Penalty.CODE, "C");
+                g.stopJamTO();
+            }
+        });
+        for (int tick = 1; tick <= PHASE_TICKS; tick++) {
+            ScoreBoardClock.getInstance().advance(ScoreBoardClock.CLOCK_UPDATE_INTERVAL);
+        }
+    }
+
+    // The load as it was before keys were sorted and resolved with a cursor:
+    // every key is matched element by element with a regex, starting from the
+    // root, and each set is applied on its own.
+    private static class LegacySetter {
+        private static void set(ScoreBoard sb, Map<String, Object> state, Source source) {
+            List<JSONSet> jsl = new ArrayList<>();
+            for (String key : state.keySet()) {
+                Object value = state.get(key);
+                jsl.add(new JSONSet(key, value == null ? null : value.toString(), null));
+            }
+            List<PropertySet> postponedSets = new ArrayList<>();
+            for (JSONSet s : jsl) {
+                Matcher m = pathElementPattern.matcher(s.path);
+                if (m.matches() && m.group("name").equals("ScoreBoard") && m.group("id") == null &&
+                    m.group("remainder") != null) {
+                    set(sb, m.group("remainder"), s.value, source, s.flag, postponedSets);
+                } else {
+                    Logger.printMessage("Illegal path: " + s.path);
+                }
+            }
+            for (PropertySet vs : postponedSets) { vs.process(); }
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static void set(ScoreBoardEventProvider p, String path, String value, Source source, Flag flag,
+                                List<PropertySet> postponedSets) {
+            Matcher m = pathElementPattern.matcher(path);
+            if (!m.matches()) {
+                Logger.printMessage("Illegal path element: " + path);
+                return;
+            }
+            String name = m.group("name");
+            String elementId = m.group("id");
+            String remainder = m.group("remainder");
+            if (elementId == null) { elementId = ""; }
+            Property prop = p.getProperty(name);
+            if (prop == null) { return; }
+
+            if (prop == ScoreBoardEventProvider.ID) {
+                p.set((Value) prop, p.valueFromString((Value) prop, value), source, flag);
+            } else if (prop instanceof Value) {
+                postponedSets.add(new ValueSet(p, (Value) prop, value, source, flag));
+            } else if (prop instanceof Command) {
+                if (Boolean.parseBoolean(value)) { p.execute((Command) prop, source); }
+            } else if (remainder != null) {
+                ScoreBoardEventProvider o =
+                    p.getOrCreate((Child<? extends ScoreBoardEventProvider>) prop, elementId, source);
+                if (o == null) {
+                    if (source.isFile() && prop == Game.EXPULSION) {
+                        postponedSets.add(
+                            new ExpulsionSet(p, (Child<Expulsion>) prop, elementId, source, flag, remainder, value));
+                    } else if (!source.isFile() ||
+                               (p.getProviderClass() != CurrentGame.class && prop != Clients.CLIENT)) {
+                        Logger.printMessage("Could not get or create property " + name + "(" + elementId + ")");
+                    }
+                    return;
+                }
+                set(o, remainder, value, source, flag, postponedSets);
+            } else if (value == null) {
+                p.remove((Child<?>) prop, elementId, source);
+            } else if (prop.getType() == ValWithId.class) {
+                Child aprop = (Child) prop;
+                p.add(aprop, p.childFromString(aprop, elementId, value), source);
+            } else {
+                postponedSets.add(new ChildSet(p, (Child) prop, elementId, value, source));
+            }
+        }
+
+        private static final Pattern pathElementPattern =
+            Pattern.compile("^(?<name>\\w+)(\\((?<id>[^\\)]*)\\))?(\\.(?<remainder>.*))?$");
+    }
+
+    private static final int SKATERS = 15;
+    // 30s of clock ticks.
+    private static final int PHASE_TICKS = 150;
+}
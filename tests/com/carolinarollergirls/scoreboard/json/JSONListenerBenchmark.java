@@ -0,0 +1,83 @@
+package com.carolinarollergirls.scoreboard.json;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Random;
+
+import com.carolinarollergirls.scoreboard.core.ScoreBoardImpl;
+import com.carolinarollergirls.scoreboard.core.interfaces.Game;
+import com.carolinarollergirls.scoreboard.core.interfaces.ScoreBoard;
+import com.carolinarollergirls.scoreboard.core.interfaces.Team;
+import com.carolinarollergirls.scoreboard.utils.ScoreBoardClock;
+
+/**
+ * Measures how much is allocated while jams are played, with the scoreboard
+ * clock driven by hand. The updates from ScoreBoardJSONListener go to a
+ * JSONStateManager that drops them, so only the model and the listener are
+ * counted. Each jam is 30s, with a trip scored every 5s, followed by a 30s
+ * lineup.
+ *
+ * Run with: ant benchmark -Dbenchmark=json.JSONListenerBenchmark -Dbenchmark.args=10
+ */
+public class JSONListenerBenchmark {
+    public static void main(String[] args) {
+        int jams = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        ScoreBoardClock.getInstance().stop();
+        ScoreBoard sb = new ScoreBoardImpl();
+        sb.postAutosaveUpdate();
+        new ScoreBoardJSONListener(sb, new JSONStateManager() {
+            @Override
+            public synchronized void updateState(List<WSUpdate> u) {
+                updates += u.size();
+            }
+        });
+        Random random = new Random(0);
+
+        // Warm up.
+        for (int i = 0; i < 3; i++) { playJam(sb, random); }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        updates = 0;
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < jams; i++) { playJam(sb, random); }
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+        System.out.printf("%d jams, %d updates per jam, %.1f KiB allocated per jam, %.1f ms per jam%n", jams,
+                          updates / jams, allocated / 1024.0 / jams, elapsed / 1e6 / jams);
+        // The scoreboard's timer threads would keep us running.
+        System.exit(0);
+    }
+
+    private static void playJam(ScoreBoard sb, Random random) {
+        final Game g = sb.getCurrentGame().getSourceElement();
+        sb.runInBatch(new Runnable() {
+            @Override
+            public void run() {
+                g.startJam();
+            }
+        });
+        for (int tick = 1; tick <= PHASE_TICKS; tick++) {
+            ScoreBoardClock.getInstance().advance(ScoreBoardClock.CLOCK_UPDATE_INTERVAL);
+            if (tick % 25 == 0) {
+                g.getTeam(tick % 50 == 0 ? Team.ID_1 : Team.ID_2).set(Team.TRIP_SCORE, random.nextInt(5));
+            }
+        }
+        sb.runInBatch(new Runnable() {
+            @Override
+            public void run() {
+                g.stopJamTO();
+            }
+        });
+        for (int tick = 1; tick <= PHASE_TICKS; tick++) {
+            ScoreBoardClock.getInstance().advance(ScoreBoardClock.CLOCK_UPDATE_INTERVAL);
+        }
+    }
+
+    // 30s of clock ticks.
+    private static final int PHASE_TICKS = 150;
+
+    private static long updates = 0;
+}
@@ -1,12 +1,15 @@
 package com.carolinarollergirls.scoreboard.json;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -112,4 +115,40 @@ public class JSONStateManagerTests {
         jsm.waitForSent();
         assertEquals(hm, listener.state);
     }
+
+    @Test
+    public void unregister_with_updates_queued() throws Exception {
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        JSONStateListener stalled = new JSONStateListener() {
+            @Override
+            public void sendUpdates(Map<String, Object> state, Set<String> changed) {
+                sending.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {}
+            }
+        };
+        jsm.register(stalled);
+        jsm.register(listener);
+        sending.await();
+        jsm.updateState("foo", "bar");
+        jsm.updateState("foo", "baz");
+        jsm.unregister(stalled);
+        jsm.unregister(stalled);
+        release.countDown();
+
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                jsm.waitForSent();
+            }
+        };
+        waiter.start();
+        waiter.join(TimeUnit.SECONDS.toMillis(5));
+        assertTrue(!waiter.isAlive());
+        HashMap<String, Object> hm = new HashMap<>();
+        hm.put("foo", "baz");
+        assertEquals(hm, listener.state);
+    }
 }
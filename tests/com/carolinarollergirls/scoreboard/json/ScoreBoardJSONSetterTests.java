@@ -0,0 +1,172 @@
+package com.carolinarollergirls.scoreboard.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.carolinarollergirls.scoreboard.core.ScoreBoardImpl;
+import com.carolinarollergirls.scoreboard.core.interfaces.Clock;
+import com.carolinarollergirls.scoreboard.core.interfaces.CurrentGame;
+import com.carolinarollergirls.scoreboard.core.interfaces.Game;
+import com.carolinarollergirls.scoreboard.core.interfaces.ScoreBoard;
+import com.carolinarollergirls.scoreboard.core.interfaces.Skater;
+import com.carolinarollergirls.scoreboard.core.interfaces.Team;
+import com.carolinarollergirls.scoreboard.event.ScoreBoardEventProvider.Source;
+import com.carolinarollergirls.scoreboard.json.ScoreBoardJSONSetter.JSONSet;
+import com.carolinarollergirls.scoreboard.utils.BasePath;
+import com.carolinarollergirls.scoreboard.utils.ScoreBoardClock;
+
+public class ScoreBoardJSONSetterTests {
+
+    @org.junit.Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+    private File oldDir;
+
+    private Map<String, Object> state;
+    private JSONStateListener jsonListener = new JSONStateListener() {
+        @Override
+        public void sendUpdates(Map<String, Object> s, Set<String> changed) {
+            state = s;
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        oldDir = BasePath.get();
+        BasePath.set(dir.getRoot());
+        dir.newFolder("config", "penalties");
+        Files.copy(oldDir.toPath().resolve("config/penalties/wftda2018.json"),
+                   dir.getRoot().toPath().resolve("config/penalties/wftda2018.json"));
+        ScoreBoardClock.getInstance().stop();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ScoreBoardClock.getInstance().start(false);
+        BasePath.set(oldDir);
+    }
+
+    private ScoreBoard createScoreBoard(JSONStateManager jsm) {
+        ScoreBoard sb = new ScoreBoardImpl();
+        sb.postAutosaveUpdate();
+        sb.getSettings().set(ScoreBoard.SETTING_CLOCK_AFTER_TIMEOUT, Clock.ID_LINEUP);
+        new ScoreBoardJSONListener(sb, jsm);
+        return sb;
+    }
+
+    private Map<String, Object> skaterState(Map<String, Object> fullState, String gameId) {
+        Map<String, Object> result = new TreeMap<>();
+        for (String key : fullState.keySet()) {
+            if (key.startsWith("ScoreBoard.Game(" + gameId + ").Team(") && key.contains(".Skater(")) {
+                result.put(key, fullState.get(key));
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testSkaterRoundTrip() {
+        JSONStateManager jsm = new JSONStateManager();
+        jsm.register(jsonListener);
+        ScoreBoard sb = createScoreBoard(jsm);
+        Game g = sb.getCurrentGame().get(CurrentGame.GAME);
+        for (String teamId : new String[] {Team.ID_1, Team.ID_2}) {
+            Team t = g.getTeam(teamId);
+            for (int i = 1; i <= 5; i++) {
+                Skater s = t.getOrCreate(Team.SKATER, teamId + "-skater-" + i);
+                s.setName("Skater " + i);
+                s.setRosterNumber(teamId + i);
+            }
+        }
+        jsm.waitForSent();
+        Map<String, Object> saved = new HashMap<>(state);
+
+        JSONStateManager jsm2 = new JSONStateManager();
+        jsm2.register(jsonListener);
+        ScoreBoard sb2 = createScoreBoard(jsm2);
+        ScoreBoardJSONSetter.set(sb2, saved, Source.JSON);
+        jsm2.waitForSent();
+
+        assertEquals("Skater 3",
+                     state.get("ScoreBoard.Game(" + g.getId() + ").Team(2).Skater(2-skater-3).Name"));
+        assertEquals(skaterState(saved, g.getId()), skaterState(state, g.getId()));
+    }
+
+    @Test
+    public void testIllegalPaths() {
+        JSONStateManager jsm = new JSONStateManager();
+        jsm.register(jsonListener);
+        ScoreBoard sb = createScoreBoard(jsm);
+        Map<String, Object> save = new HashMap<>();
+        save.put("ScoreBoard", "x");
+        save.put("ScoreBoard.", "x");
+        save.put("ScoreBoard(1).Settings.Setting(foo)", "x");
+        save.put("ScoreBoard.Settings.Setting(foo", "x");
+        save.put("ScoreBoard.Settings.Setting(foo)bar", "x");
+        save.put("ScoreBoard.Settings.Setting(bar)", "ok");
+        save.put("ScoreBoard.Settings.Setting(Baz.Qux)", "dotted");
+        ScoreBoardJSONSetter.set(sb, save, Source.JSON);
+        jsm.waitForSent();
+
+        assertNull(state.get("ScoreBoard.Settings.Setting(foo)"));
+        assertEquals("ok", state.get("ScoreBoard.Settings.Setting(bar)"));
+        assertEquals("dotted", state.get("ScoreBoard.Settings.Setting(Baz.Qux)"));
+    }
+
+    @Test
+    public void testFailedSets() {
+        JSONStateManager jsm = new JSONStateManager();
+        jsm.register(jsonListener);
+        ScoreBoard sb = createScoreBoard(jsm);
+        List<JSONSet> sets = new ArrayList<>();
+        sets.add(new JSONSet("ScoreBoard.Settings.Setting(bar)", "ok", null));
+        sets.add(new JSONSet("ScoreBoard.Settings.Setting(foo", "x", null));
+        sets.add(new JSONSet("ScoreBoard.NoSuchProperty", "x", null));
+        sets.add(new JSONSet("Foo.Settings.Setting(foo)", "x", null));
+        List<String> failed = ScoreBoardJSONSetter.set(sb, sets, Source.WS);
+        jsm.waitForSent();
+
+        assertEquals(Arrays.asList("ScoreBoard.Settings.Setting(foo", "ScoreBoard.NoSuchProperty",
+                                   "Foo.Settings.Setting(foo)"),
+                     failed);
+        assertEquals("ok", state.get("ScoreBoard.Settings.Setting(bar)"));
+    }
+
+    @Test
+    public void testStage() {
+        Map<String, Object> save = new HashMap<>();
+        save.put("ScoreBoard.Version(release)", "v5");
+        save.put("ScoreBoard.CurrentGame.Game", "g2");
+        save.put("ScoreBoard.Game(g2).Name", "b");
+        save.put("ScoreBoard.Game(g1).Name", "a");
+        save.put("ScoreBoard.Game(g1).Team(1).TeamName", "c");
+        save.put("ScoreBoard.Settings.Setting(foo)", "d");
+        save.put("ScoreBoard.Clients.Device(x).Comment", "e");
+
+        List<List<JSONSet>> groups = ScoreBoardJSONSetter.stage(save);
+        assertEquals(4, groups.size());
+        assertEquals(3, groups.get(0).size());
+        assertEquals("ScoreBoard.Clients.Device(x).Comment", groups.get(0).get(0).path);
+        assertEquals("ScoreBoard.Settings.Setting(foo)", groups.get(0).get(1).path);
+        assertEquals(2, groups.get(1).size());
+        assertEquals("ScoreBoard.Game(g1).Name", groups.get(1).get(0).path);
+        assertEquals(1, groups.get(2).size());
+        assertEquals("ScoreBoard.Game(g2).Name", groups.get(2).get(0).path);
+        assertEquals(1, groups.get(3).size());
+        assertEquals("ScoreBoard.CurrentGame.Game", groups.get(3).get(0).path);
+    }
+}
@@ -0,0 +1,138 @@
+package com.carolinarollergirls.scoreboard.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.carolinarollergirls.scoreboard.core.ScoreBoardImpl;
+import com.carolinarollergirls.scoreboard.core.interfaces.Game;
+import com.carolinarollergirls.scoreboard.core.interfaces.ScoreBoard;
+import com.carolinarollergirls.scoreboard.core.interfaces.ScoringTrip;
+import com.carolinarollergirls.scoreboard.core.interfaces.Team;
+import com.carolinarollergirls.scoreboard.core.interfaces.TeamJam;
+import com.carolinarollergirls.scoreboard.json.ScoreBoardJSONListener;
+
+public class StatsbookExporterTests {
+
+    @org.junit.Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+    private File oldDir;
+
+    private ScoreBoard sb;
+    private Game g;
+
+    @Before
+    public void setUp() throws Exception {
+        oldDir = BasePath.get();
+        BasePath.set(dir.getRoot());
+        dir.newFolder("config", "penalties");
+        Files.copy(oldDir.toPath().resolve("config/penalties/wftda2018.json"),
+                   dir.getRoot().toPath().resolve("config/penalties/wftda2018.json"));
+        ScoreBoardClock.getInstance().stop();
+
+        sb = new ScoreBoardImpl();
+        sb.postAutosaveUpdate();
+        new ScoreBoardJSONListener(sb, sb.getJsm());
+        g = sb.getCurrentGame().getSourceElement();
+        sb.getSettings().set(ScoreBoard.SETTING_STATSBOOK_INPUT, writeBlankStatsbook().getPath());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sb.getSettings().set(ScoreBoard.SETTING_LIVE_STATSBOOK, "false");
+        ScoreBoardClock.getInstance().start(false);
+        BasePath.set(oldDir);
+    }
+
+    // The real blank statsbook can't be shipped with the tests, so use a workbook
+    // with empty cells wherever the exporter writes. The exporter doesn't care
+    // about the format, so keep it simple and use the old one.
+    private File writeBlankStatsbook() throws Exception {
+        File file = dir.newFile("blank.xls");
+        try (Workbook wb = new HSSFWorkbook(); FileOutputStream out = new FileOutputStream(file)) {
+            for (String name : new String[] {"IGRF", "Score", "Penalties", "Lineups", "Game Clock", "Penalty Box",
+                                             "OS Offset"}) {
+                Sheet sheet = wb.createSheet(name);
+                for (int r = 0; r < 150; r++) {
+                    Row row = sheet.createRow(r);
+                    for (int c = 0; c < 70; c++) { row.createCell(c); }
+                }
+            }
+            wb.write(out);
+        }
+        return file;
+    }
+
+    @Test
+    public void testLiveMatchesFreshAfterRemovingTrips() throws Exception {
+        sb.getSettings().set(ScoreBoard.SETTING_LIVE_STATSBOOK, "true");
+        Team t = g.getTeam(Team.ID_1);
+        g.startJam();
+        // Trips from the 10th on share one cell, so this puts 3 trips there.
+        for (int i = 0; i < 11; i++) {
+            t.execute(Team.ADD_TRIP);
+            t.getCurrentTrip().set(ScoringTrip.SCORE, 4);
+        }
+        export();
+
+        // Down to a single trip in the shared cell.
+        t.execute(Team.REMOVE_TRIP);
+        t.execute(Team.REMOVE_TRIP);
+        export();
+
+        // Moves that trip to the star pass row, which leaves the cell empty.
+        t.getRunningOrEndedTeamJam().set(TeamJam.STAR_PASS_TRIP, t.getCurrentTrip());
+        export();
+        Map<String, String> live = readExport();
+
+        sb.getSettings().set(ScoreBoard.SETTING_LIVE_STATSBOOK, "false");
+        export();
+        assertEquals(readExport(), live);
+    }
+
+    private void export() throws InterruptedException {
+        g.execute(Game.EXPORT);
+        long deadline = System.currentTimeMillis() + 30000;
+        while (g.get(Game.UPDATE_IN_PROGRESS) && System.currentTimeMillis() < deadline) { Thread.sleep(10); }
+        assertFalse(g.get(Game.UPDATE_IN_PROGRESS));
+        assertEquals(Game.ExportStatus.DONE, g.get(Game.EXPORT_STATUS));
+    }
+
+    private Map<String, String> readExport() throws Exception {
+        Map<String, String> cells = new TreeMap<>();
+        File file = new File(dir.getRoot(), "html/game-data/xlsx/" + g.getFilename() + ".xlsx");
+        try (Workbook wb = WorkbookFactory.create(file, null, true)) {
+            for (Sheet sheet : wb) {
+                for (Row row : sheet) {
+                    for (Cell cell : row) {
+                        String content;
+                        switch (cell.getCellType()) {
+                        case BLANK: continue;
+                        case FORMULA: content = "=" + cell.getCellFormula(); break;
+                        case NUMERIC: content = String.valueOf(cell.getNumericCellValue()); break;
+                        default: content = cell.toString();
+                        }
+                        cells.put(sheet.getSheetName() + "!" + cell.getAddress(), content);
+                    }
+                }
+            }
+        }
+        return cells;
+    }
+}